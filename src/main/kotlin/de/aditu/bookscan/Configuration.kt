@@ -1,20 +1,26 @@
 package de.aditu.bookscan
 
+import de.aditu.bookscan.web.ConnectionMetrics
+import de.aditu.bookscan.web.DnsCache
+import io.netty.channel.ChannelDuplexHandler
+import io.netty.channel.ChannelHandlerContext
 import io.netty.channel.ChannelOption
+import io.netty.handler.timeout.IdleStateEvent
+import io.netty.handler.timeout.IdleStateHandler
 import org.elasticsearch.client.Client
 import org.elasticsearch.common.settings.Settings
 import org.elasticsearch.common.transport.InetSocketTransportAddress
 import org.elasticsearch.transport.client.PreBuiltTransportClient
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
 import java.net.InetAddress
+import java.util.concurrent.TimeUnit
 import org.springframework.web.reactive.function.client.WebClient
 import org.springframework.http.client.reactive.ReactorClientHttpConnector
 import io.netty.handler.ssl.SslContextBuilder
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory
-import org.openqa.selenium.chrome.ChromeDriver
-import org.openqa.selenium.chrome.ChromeOptions
-import org.springframework.beans.factory.annotation.Value
+import reactor.ipc.netty.resources.PoolResources
 import org.springframework.web.reactive.function.client.ClientRequest
 import javax.net.ssl.SSLException
 
@@ -32,22 +38,53 @@ open class Configuration {
                 .addTransportAddress(InetSocketTransportAddress(InetAddress.getLoopbackAddress(), 9300))
     }
 
+    @Bean
+    open fun connectionMetrics() = ConnectionMetrics()
+
+    @Bean
+    open fun dnsCache(@Value("\${crawler.dnsPositiveTtl:3600}") positiveTtlInSeconds: Long,
+                      @Value("\${crawler.dnsNegativeTtl:600}") negativeTtlInSeconds: Long) =
+            DnsCache(TimeUnit.SECONDS.toMillis(positiveTtlInSeconds), TimeUnit.SECONDS.toMillis(negativeTtlInSeconds))
+
+    /**
+     * crawler http client: connections are pooled per host, idle connections are closed after the idle timeout,
+     * responses are requested gzip/deflate compressed and decompressed while streaming, tls sessions are cached and resumed,
+     * host names are resolved by the shared dns cache
+     */
     @Bean
     @Throws(SSLException::class)
-    open fun createWebClient(): WebClient {
+    open fun createWebClient(@Value("\${crawler.maxConnectionsPerHost:6}") maxConnectionsPerHost: Int,
+                             @Value("\${crawler.connectionAcquireTimeout:45000}") acquireTimeoutInMs: Long,
+                             @Value("\${crawler.connectionIdleTimeout:60}") idleTimeoutInSeconds: Int,
+                             @Value("\${crawler.compression:true}") compression: Boolean,
+                             @Value("\${crawler.tlsSessionCacheSize:4096}") tlsSessionCacheSize: Long,
+                             @Value("\${crawler.tlsSessionTimeout:3600}") tlsSessionTimeoutInSeconds: Long,
+                             metrics: ConnectionMetrics,
+                             dnsCache: DnsCache): WebClient {
         val sslContext = SslContextBuilder
                 .forClient()
                 .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .sessionCacheSize(tlsSessionCacheSize)
+                .sessionTimeout(tlsSessionTimeoutInSeconds)
                 .build()
 
         val httpConnector = ReactorClientHttpConnector { opt ->
             opt.sslContext(sslContext)
             opt.option(ChannelOption.SO_TIMEOUT, SOCKET_TIMEOUT_IN_MS)
             opt.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_IN_MS)
+            opt.option(ChannelOption.SO_KEEPALIVE, true)
+            opt.poolResources(PoolResources.fixed("crawler", maxConnectionsPerHost, acquireTimeoutInMs))
+            opt.compression(compression)
+            opt.resolver(dnsCache.resolverGroup())
+            opt.afterChannelInit { channel ->
+                metrics.register(channel)
+                channel.pipeline().addLast(IdleStateHandler(0, 0, idleTimeoutInSeconds), IdleConnectionCloser())
+            }
         }
 
         return WebClient.builder()
                 .filter({ request, next ->
+                    metrics.requestSent()
                     next.exchange(ClientRequest.from(request)
                             .header("User-Agent", "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)")
                             .build())
@@ -55,12 +92,14 @@ open class Configuration {
                 .clientConnector(httpConnector).build()
     }
 
-    @Bean
-    open fun chromeDriver(@Value("\${webdriver.chrome.driver}") webdriverPath: String): ChromeDriver {
-        System.setProperty("webdriver.chrome.driver", webdriverPath)
-        val options = ChromeOptions()
-        options.addArguments("headless")
-        options.addArguments("window-size=1200x600")
-        return ChromeDriver(options)
+    // closes pooled connections which were neither read nor written within the idle timeout
+    private class IdleConnectionCloser : ChannelDuplexHandler() {
+        override fun userEventTriggered(ctx: ChannelHandlerContext, evt: Any) {
+            if (evt is IdleStateEvent) {
+                ctx.close()
+            } else {
+                super.userEventTriggered(ctx, evt)
+            }
+        }
     }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package de.aditu.bookscan.amazon
 
 import com.amazon.webservices.awsecommerceservice._2011_08_01.BrowseNode
 import com.amazon.webservices.awsecommerceservice._2011_08_01.ItemLookupResponse
+import com.google.common.util.concurrent.RateLimiter
 import de.aditu.bookscan.model.BookCategory
 import de.aditu.bookscan.model.BookInfo
 import org.slf4j.LoggerFactory
@@ -16,6 +17,7 @@ import javax.xml.bind.JAXBContext
 
 /**
  * client for accessing amazon product advertising api
+ * all requests share one rate limit of the api, regardless how many threads look up books
  */
 @Component
 class AmazonClient(@Autowired private val webClient: WebClient,
@@ -26,10 +28,12 @@ class AmazonClient(@Autowired private val webClient: WebClient,
     companion object {
         private val READ_TIMEOUT_IN_MS = 30000L
         private val MAX_RETRIES = 15
+        private val REQUESTS_PER_SECOND = 1.0
     }
 
     private val log = LoggerFactory.getLogger(this.javaClass)
     private val jaxbUnmarshaller = JAXBContext.newInstance(ItemLookupResponse::class.java).createUnmarshaller()
+    private val rateLimiter = RateLimiter.create(REQUESTS_PER_SECOND)
 
 
     /**
@@ -52,6 +56,7 @@ class AmazonClient(@Autowired private val webClient: WebClient,
 
         while(retry < MAX_RETRIES) {
             try {
+                rateLimiter.acquire()
                 val result = webClient.get()
                         .uri(URI.create(url))
                         .retrieve()
@@ -63,7 +68,8 @@ class AmazonClient(@Autowired private val webClient: WebClient,
                     return null
                 }
 
-                val response = jaxbUnmarshaller.unmarshal(StringReader(result)) as ItemLookupResponse
+                // the unmarshaller is not thread safe, the fetcher looks up several books at once
+                val response = synchronized(jaxbUnmarshaller) { jaxbUnmarshaller.unmarshal(StringReader(result)) } as ItemLookupResponse
                 if (response.items == null || response.items.isEmpty() || response.items[0].item == null || response.items[0].item.isEmpty()) {
                     throw RuntimeException("no items in result found")
                 }
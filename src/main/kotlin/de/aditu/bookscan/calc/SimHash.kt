@@ -0,0 +1,39 @@
+package de.aditu.bookscan.calc
+
+import com.google.common.hash.Hashing
+import java.nio.charset.StandardCharsets
+
+/**
+ * 64 bit simhash of a text over word shingles. texts which differ only in small parts (comments, navigation,
+ * print views) get fingerprints with a small hamming distance.
+ */
+object SimHash {
+
+    private val SHINGLE_SIZE = 3
+    private val WORD = Regex("[\\p{L}\\p{N}]+")
+    private val hashFunction = Hashing.murmur3_128()
+
+    fun fingerprint(text: String): Long {
+        val words = WORD.findAll(text.toLowerCase()).map { it.value }.toList()
+        if (words.isEmpty()) {
+            return 0L
+        }
+        val weights = IntArray(64)
+        val shingles = if (words.size < SHINGLE_SIZE) listOf(words) else words.windowed(SHINGLE_SIZE)
+        for (shingle in shingles) {
+            val hash = hashFunction.hashString(shingle.joinToString(" "), StandardCharsets.UTF_8).asLong()
+            for (bit in 0 until 64) {
+                weights[bit] += if ((hash ushr bit) and 1L == 1L) 1 else -1
+            }
+        }
+        var fingerprint = 0L
+        for (bit in 0 until 64) {
+            if (weights[bit] > 0) {
+                fingerprint = fingerprint or (1L shl bit)
+            }
+        }
+        return fingerprint
+    }
+
+    fun distance(first: Long, second: Long) = java.lang.Long.bitCount(first xor second)
+}
@@ -49,7 +49,8 @@ class BlogArticleRepository(@Autowired val client: Client, @Autowired private va
                                         "blogUrl": { "type": "keyword" },
                                         "date": { "type": "date" },
                                         "title": { "type": "keyword" },
-                                        "content": { "type": "keyword" }
+                                        "content": { "type": "keyword" },
+                                        "simhash": { "type": "long" }
                                     }
                                 }
                             }
@@ -86,7 +87,10 @@ class BlogArticleRepository(@Autowired val client: Client, @Autowired private va
         } while (scrollResp.hits.hits.isNotEmpty())
     }
 
-    fun save(blogArticles: List<BlogArticle>) {
+    /**
+     * @return the urls of the blog articles which could not be saved
+     */
+    fun save(blogArticles: List<BlogArticle>): Set<String> {
         val bulkRequest = client.prepareBulk()
         for (blogArticle in blogArticles) {
             bulkRequest.add(client.prepareIndex(INDEX, TYPE, blogArticle.url)
@@ -95,6 +99,30 @@ class BlogArticleRepository(@Autowired val client: Client, @Autowired private va
         val result = bulkRequest.get()
         if (result.hasFailures()) {
             log.error("error saving blog articles: ${result.status()} ${result.buildFailureMessage()}")
+            return result.items.filter { it.isFailed }.map { it.id }.toSet()
+        }
+        return setOf()
+    }
+
+    /**
+     * loads the simhash fingerprints of all blog articles which have one
+     * @param callback will be executed with url and fingerprint of every blog article
+     */
+    fun findAllSimhashes(callback: (url: String, simhash: Long) -> Unit) {
+        var scrollResp = client.prepareSearch(INDEX)
+                .setTypes(TYPE)
+                .setScroll(TimeValue(SCROLL_TIME_IN_HOURS, TimeUnit.HOURS))
+                .setQuery(QueryBuilders.existsQuery("simhash"))
+                .setFetchSource(arrayOf("url", "simhash"), null)
+                .setSize(CHUNK_SIZE)
+                .execute().actionGet()
+        while (scrollResp.hits.hits.isNotEmpty()) {
+            for (hit in scrollResp.hits.hits) {
+                val source = hit.sourceAsMap
+                val simhash = source["simhash"] as? Number ?: continue
+                callback(source["url"] as String, simhash.toLong())
+            }
+            scrollResp = client.prepareSearchScroll(scrollResp.scrollId).setScroll(TimeValue(SCROLL_TIME_IN_HOURS, TimeUnit.HOURS)).execute().actionGet()
         }
     }
 
@@ -170,10 +198,16 @@ class BlogArticleRepository(@Autowired val client: Client, @Autowired private va
             request.add(it)
         }
 
+        // a failed search (e.g. rejected by a full search queue) has no response, its blog is left out
         val result = mutableMapOf<String, Long>()
         var i = 0
         for (item in request.get()) {
-            result.put(urls[i++], item.response.hits.totalHits)
+            val url = urls[i++]
+            if (item.isFailure) {
+                log.warn("articles of $url not counted: ${item.failureMessage}")
+                continue
+            }
+            result.put(url, item.response.hits.totalHits)
         }
         return result
     }
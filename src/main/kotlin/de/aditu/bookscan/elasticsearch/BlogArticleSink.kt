@@ -0,0 +1,127 @@
+package de.aditu.bookscan.elasticsearch
+
+import de.aditu.bookscan.calc.SimHash
+import de.aditu.bookscan.model.BlogArticle
+import de.aditu.bookscan.service.DuplicateIndex
+import de.aditu.bookscan.telemetry.CrawlTelemetry
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import javax.annotation.PreDestroy
+
+/**
+ * asynchronous ingestion of blog articles. articles are put into a bounded queue which is drained by own threads
+ * into bulk requests, a bulk is sent when it reaches the maximum count or size or when the flush interval elapsed.
+ * the crawler only blocks when the queue is full because elasticsearch falls behind.
+ * with crawler.dedupe near duplicates of already saved articles (same simhash within the maximum distance) are dropped before they are queued.
+ * an optional callback of every article is executed after its bulk was saved successfully.
+ */
+@Component
+class BlogArticleSink(@Autowired private val blogArticleRepository: BlogArticleRepository,
+                      @Autowired private val duplicateIndex: DuplicateIndex,
+                      @Autowired private val telemetry: CrawlTelemetry,
+                      @Value("\${crawler.sinkCapacity:2000}") capacity: Int,
+                      @Value("\${crawler.sinkThreads:2}") private val threads: Int,
+                      @Value("\${crawler.sinkBulkSize:500}") private val bulkSize: Int,
+                      @Value("\${crawler.sinkBulkBytes:5242880}") private val bulkBytes: Long,
+                      @Value("\${crawler.sinkFlushInterval:2000}") private val flushIntervalInMs: Long) {
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+
+    private val queue = ArrayBlockingQueue<Queued>(capacity)
+    private val pendingByBlog = ConcurrentHashMap<String, AtomicInteger>()
+    private val lock = Object()
+    private val executor = Executors.newFixedThreadPool(threads)
+
+    @Volatile
+    private var stopped = false
+
+    init {
+        repeat(threads) { executor.execute { drain() } }
+        telemetry.gauge("crawler.sink.queue", { queue.size })
+    }
+
+    /**
+     * enqueues the article, blocks while the queue is full
+     * @param onSaved executed after the article was saved, not executed for dropped articles or failed bulks
+     * @return false if the article was dropped as near duplicate
+     */
+    fun add(blogArticle: BlogArticle, onSaved: (() -> Unit)? = null): Boolean {
+        // the fingerprint is only computed and stored while dedupe is enabled
+        if (duplicateIndex.enabled) {
+            val simhash = SimHash.fingerprint(blogArticle.content)
+            blogArticle.simhash = simhash
+            val duplicate = duplicateIndex.addOrFindDuplicate(blogArticle.url, simhash)
+            if (duplicate != null) {
+                log.info("${blogArticle.url} dropped, near duplicate of $duplicate")
+                return false
+            }
+        }
+        pendingByBlog.computeIfAbsent(blogArticle.blogUrl, { AtomicInteger() }).incrementAndGet()
+        queue.put(Queued(blogArticle, onSaved))
+        return true
+    }
+
+    /**
+     * blocks until all articles of the blog are saved
+     */
+    fun awaitSaved(blogUrl: String) {
+        synchronized(lock) {
+            while (pendingByBlog[blogUrl]?.get() ?: 0 > 0) {
+                lock.wait(flushIntervalInMs)
+            }
+            pendingByBlog.remove(blogUrl)
+        }
+    }
+
+    @PreDestroy
+    fun close() {
+        stopped = true
+        executor.shutdown()
+        executor.awaitTermination(1, TimeUnit.MINUTES)
+    }
+
+    private fun drain() {
+        while (!stopped || queue.isNotEmpty()) {
+            val first = queue.poll(flushIntervalInMs, TimeUnit.MILLISECONDS) ?: continue
+            val bulk = mutableListOf(first)
+            var bytes = size(first)
+            val deadline = System.currentTimeMillis() + flushIntervalInMs
+            while (bulk.size < bulkSize && bytes < bulkBytes) {
+                val next = queue.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS) ?: break
+                bulk.add(next)
+                bytes += size(next)
+            }
+            save(bulk)
+        }
+    }
+
+    private fun save(bulk: List<Queued>) {
+        try {
+            val failed = blogArticleRepository.save(bulk.map { it.blogArticle })
+            telemetry.articlesSaved(bulk.size - failed.size)
+            bulk.filter { !failed.contains(it.blogArticle.url) }.forEach { it.onSaved?.invoke() }
+        } catch (e: Exception) {
+            log.error("error saving ${bulk.size} blog articles", e)
+        } finally {
+            synchronized(lock) {
+                bulk.forEach { pendingByBlog[it.blogArticle.blogUrl]?.decrementAndGet() }
+                lock.notifyAll()
+            }
+        }
+    }
+
+    // estimated size of the article in the bulk request
+    private fun size(queued: Queued): Long {
+        val blogArticle = queued.blogArticle
+        return 2L * (blogArticle.url.length + blogArticle.blogUrl.length + blogArticle.title.length + blogArticle.content.length)
+    }
+
+    private class Queued(val blogArticle: BlogArticle, val onSaved: (() -> Unit)?)
+}
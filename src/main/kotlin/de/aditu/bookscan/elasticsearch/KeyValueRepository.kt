@@ -5,6 +5,7 @@ import de.aditu.bookscan.model.KeyValue
 import org.elasticsearch.client.Client
 import org.springframework.beans.factory.annotation.Autowired
 import org.elasticsearch.common.xcontent.XContentType
+import org.elasticsearch.index.engine.VersionConflictEngineException
 import org.elasticsearch.rest.RestStatus
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Component
@@ -63,6 +64,47 @@ class KeyValueRepository(@Autowired val client: Client, @Autowired private val o
         return keyValue?.value ?: default
     }
 
+    /**
+     * @return the value with its version for a later compareAndSave, null if the key does not exist
+     */
+    fun loadVersioned(key: String): Pair<String, Long>? {
+        val response = client.prepareGet(INDEX, TYPE, key).get()
+        if (!response.isExists || response.isSourceEmpty) {
+            return null
+        }
+        return Pair(objectMapper.readValue<KeyValue>(response.sourceAsString, KeyValue::class.java).value, response.version)
+    }
+
+    /**
+     * saves the value only if the key does not exist yet
+     * @return the version of the saved value, null if another process created the key first
+     */
+    fun create(key: String, value: String): Long? =
+            try {
+                client.prepareIndex(INDEX, TYPE, key)
+                        .setSource(objectMapper.writeValueAsString(KeyValue(key, value)), XContentType.JSON)
+                        .setCreate(true)
+                        .get()
+                        .version
+            } catch (e: VersionConflictEngineException) {
+                null
+            }
+
+    /**
+     * saves the value only if the key was not changed since it was loaded with the given version
+     * @return the new version of the saved value, null if another process changed the key in between
+     */
+    fun compareAndSave(key: String, value: String, version: Long): Long? =
+            try {
+                client.prepareIndex(INDEX, TYPE, key)
+                        .setSource(objectMapper.writeValueAsString(KeyValue(key, value)), XContentType.JSON)
+                        .setVersion(version)
+                        .get()
+                        .version
+            } catch (e: VersionConflictEngineException) {
+                null
+            }
+
     private fun findByKey(key: String): KeyValue? {
         val response = client.prepareGet(INDEX, TYPE, key).get()
         if (!response.isExists || response.isSourceEmpty) {
@@ -0,0 +1,88 @@
+package de.aditu.bookscan.elasticsearch
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import de.aditu.bookscan.model.PageValidator
+import org.elasticsearch.client.Client
+import org.elasticsearch.common.unit.TimeValue
+import org.elasticsearch.common.xcontent.XContentType
+import org.elasticsearch.index.query.QueryBuilders
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Component
+import java.util.concurrent.TimeUnit
+
+/**
+ * repository for accessing the validators (etag, last modified, content hash) of fetched pages stored in elasticsearch
+ */
+@Component
+class PageValidatorRepository(@Autowired val client: Client, @Autowired private val objectMapper: ObjectMapper) {
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+
+    companion object {
+        private val INDEX = "bookscan"
+        private val TYPE = PageValidator::class.java.simpleName.toLowerCase()
+        private val CHUNK_SIZE = 10_000
+        private val SCROLL_TIME_IN_MINUTES = 10L
+    }
+
+    init {
+        val exists = client.admin().indices()
+                .prepareExists(INDEX)
+                .execute().actionGet().isExists
+
+        if (!exists) {
+            client.admin().indices().prepareCreate(INDEX)
+                    .addMapping(
+                            TYPE,
+                            """
+                            {
+                                "$TYPE": {
+                                    "properties": {
+                                        "url": { "type": "keyword" },
+                                        "blogUrl": { "type": "keyword" },
+                                        "etag": { "type": "keyword" },
+                                        "lastModified": { "type": "keyword" },
+                                        "hash": { "type": "keyword" }
+                                    }
+                                }
+                            }
+                        """,
+                            XContentType.JSON)
+                    .get()
+        }
+    }
+
+    fun save(pageValidators: List<PageValidator>) {
+        if (pageValidators.isEmpty()) {
+            return
+        }
+
+        val bulkRequest = client.prepareBulk()
+        for (pageValidator in pageValidators) {
+            bulkRequest.add(client.prepareIndex(INDEX, TYPE, pageValidator.url)
+                    .setSource(objectMapper.writeValueAsString(pageValidator), XContentType.JSON))
+        }
+        val result = bulkRequest.get()
+        if (result.hasFailures()) {
+            log.error("error saving page validators: ${result.status()} ${result.buildFailureMessage()}")
+        }
+    }
+
+    fun findAllByBlogUrl(url: String): List<PageValidator> {
+        val result = mutableListOf<PageValidator>()
+        var scrollResp = client.prepareSearch(INDEX)
+                .setTypes(TYPE)
+                .setScroll(TimeValue(SCROLL_TIME_IN_MINUTES, TimeUnit.MINUTES))
+                .setQuery(QueryBuilders.matchPhraseQuery("blogUrl", url))
+                .setSize(CHUNK_SIZE)
+                .execute().actionGet()
+        while (scrollResp.hits.hits.isNotEmpty()) {
+            for (hit in scrollResp.hits.hits) {
+                result.add(objectMapper.readValue<PageValidator>(hit.sourceAsString, PageValidator::class.java))
+            }
+            scrollResp = client.prepareSearchScroll(scrollResp.scrollId).setScroll(TimeValue(SCROLL_TIME_IN_MINUTES, TimeUnit.MINUTES)).execute().actionGet()
+        }
+        return result
+    }
+}
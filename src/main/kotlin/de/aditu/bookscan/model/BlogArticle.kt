@@ -2,4 +2,4 @@ package de.aditu.bookscan.model
 
 import java.util.*
 
-data class BlogArticle(var url: String, var blogUrl: String, var date: Date, var title: String, var content: String)
\ No newline at end of file
+data class BlogArticle(var url: String, var blogUrl: String, var date: Date, var title: String, var content: String, var simhash: Long? = null)
\ No newline at end of file
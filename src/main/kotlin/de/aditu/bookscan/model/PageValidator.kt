@@ -0,0 +1,3 @@
+package de.aditu.bookscan.model
+
+data class PageValidator(var url: String, var blogUrl: String, var etag: String? = null, var lastModified: String? = null, var hash: String? = null)
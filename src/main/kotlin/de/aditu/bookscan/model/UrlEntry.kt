@@ -1,5 +1,7 @@
 package de.aditu.bookscan.model
 
+import com.fasterxml.jackson.annotation.JsonIgnore
+
 /**
  * url entry from urls.json
  */
@@ -21,6 +23,9 @@ data class UrlEntry(val url: String,
                     val removeSelector: List<String>? = null,
                     val removeRegex: List<String>? = null,
 
-                    val simulateBrowser: Boolean? = null) {
-    fun getFetchUrl(): String = frame ?: url
+                    val simulateBrowser: Boolean? = null,
+
+                    // final url of a redirected blog, set by the preflight and not part of urls.json
+                    @get:JsonIgnore val redirectedTo: String? = null) {
+    fun getFetchUrl(): String = redirectedTo ?: frame ?: url
 }
\ No newline at end of file
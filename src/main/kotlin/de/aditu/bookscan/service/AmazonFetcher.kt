@@ -17,12 +17,14 @@ import org.springframework.stereotype.Service
 class AmazonFetcher(@Autowired private val bookMatchRepository: BookMatchRepository,
                     @Autowired private val bookRepository: BookRepository,
                     @Autowired private val bookInfoRepository: BookInfoRepository,
-                    @Autowired private val amazonClient: AmazonClient) {
+                    @Autowired private val amazonClient: AmazonClient,
+                    @Autowired private val taskRunner: TaskRunner) {
 
     private val log = LoggerFactory.getLogger(this.javaClass)
 
     companion object {
         private val MAX_QUEUE_SIZE = 50
+        private val VIRTUAL_MAX_CONCURRENT_REQUESTS = 4
     }
 
     fun start() {
@@ -42,26 +44,31 @@ class AmazonFetcher(@Autowired private val bookMatchRepository: BookMatchReposit
         log.info("existing bookinfos loaded")
 
         var queue = mutableListOf<BookInfo>()
+        val lock = Object()
 
-        for (isbn in isbns) {
-            if (exists[isbn] == true) {
-                log.info("isbn $isbn already fetched")
-                continue
-            }
-
+        taskRunner.forEach(isbns.filter { exists[it] != true }, 1, VIRTUAL_MAX_CONCURRENT_REQUESTS) { isbn ->
             var bookInfo = amazonClient.findByIsbn(isbn)
             if (bookInfo == null) {
                 log.warn("no bookinfo for $isbn found")
                 bookInfo = BookInfo(isbn, null, null, listOf(), false)
             }
 
-            queue.add(bookInfo)
-            if (queue.size > MAX_QUEUE_SIZE) {
-                bookInfoRepository.save(queue)
-                queue = mutableListOf()
+            val toSave = synchronized(lock) {
+                queue.add(bookInfo)
+                if (queue.size > MAX_QUEUE_SIZE) {
+                    val full = queue
+                    queue = mutableListOf()
+                    full
+                } else {
+                    null
+                }
+            }
+            if (toSave != null) {
+                bookInfoRepository.save(toSave)
             }
             log.info("saved bookinfo for $isbn")
         }
+        log.info("${isbns.count { exists[it] == true }} isbns already fetched")
 
         if (queue.size > 0) {
             bookInfoRepository.save(queue)
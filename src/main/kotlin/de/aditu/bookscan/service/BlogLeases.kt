@@ -0,0 +1,138 @@
+package de.aditu.bookscan.service
+
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import com.fasterxml.jackson.module.kotlin.readValue
+import de.aditu.bookscan.elasticsearch.KeyValueRepository
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import java.lang.management.ManagementFactory
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import javax.annotation.PreDestroy
+
+/**
+ * ownership of blogs in a cluster crawl. several blogscan processes share the same urls.json and claim every blog
+ * by a time limited lease in the keyvalue type, written with optimistic versioning so only one process wins.
+ * held leases are renewed by a heartbeat, leases of dead processes expire and are taken over by the other processes.
+ * finished blogs are marked as done and skipped by all processes of the same cluster run.
+ */
+@Component
+class BlogLeases(@Autowired private val keyValueRepository: KeyValueRepository,
+                 @Value("\${crawler.cluster:false}") val enabled: Boolean,
+                 @Value("\${crawler.clusterRun:default}") private val run: String,
+                 @Value("\${crawler.leaseTimeout:300000}") val leaseTimeoutInMs: Long) {
+
+    companion object {
+        private val KEY_PREFIX = "lease"
+    }
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+    private val objectMapper = jacksonObjectMapper()
+
+    val worker = ManagementFactory.getRuntimeMXBean().name + "-" + UUID.randomUUID().toString().substring(0, 8)
+
+    // version of every lease held by this process
+    private val held = ConcurrentHashMap<String, Long>()
+    private val heartbeat = Executors.newSingleThreadScheduledExecutor(ThreadFactory { Thread(it, "lease-heartbeat").apply { isDaemon = true } })
+
+    init {
+        if (enabled) {
+            log.info("cluster crawl $run as worker $worker")
+            val interval = leaseTimeoutInMs / 3
+            heartbeat.scheduleWithFixedDelay({ renew() }, interval, interval, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /**
+     * tries to take the blog. a free blog or an expired lease of another worker is taken
+     */
+    fun claim(url: String): Claim {
+        if (!enabled) {
+            return Claim.CLAIMED
+        }
+        val key = key(url)
+        val current = keyValueRepository.loadVersioned(key)
+        if (current == null) {
+            return take(url, keyValueRepository.create(key, lease()))
+        }
+        val lease = objectMapper.readValue<Lease>(current.first)
+        return when {
+            lease.done -> Claim.DONE
+            lease.worker != worker && lease.expires > System.currentTimeMillis() -> Claim.HELD
+            else -> {
+                if (lease.worker != worker) {
+                    log.info("$url lease of ${lease.worker} expired, taken over")
+                }
+                take(url, keyValueRepository.compareAndSave(key, lease(), current.second))
+            }
+        }
+    }
+
+    /**
+     * marks the blog as done, no worker of this cluster run will scan it again
+     */
+    fun complete(url: String) = finish(url, Lease(worker, 0, true))
+
+    /**
+     * gives the blog back after a failure, the next worker can take it at once
+     */
+    fun release(url: String) = finish(url, Lease(worker, 0, false))
+
+    @PreDestroy
+    fun close() {
+        heartbeat.shutdownNow()
+    }
+
+    private fun take(url: String, version: Long?): Claim {
+        if (version == null) {
+            return Claim.HELD
+        }
+        held[url] = version
+        return Claim.CLAIMED
+    }
+
+    @Synchronized
+    private fun finish(url: String, lease: Lease) {
+        if (!enabled) {
+            return
+        }
+        val version = held.remove(url) ?: return
+        if (keyValueRepository.compareAndSave(key(url), objectMapper.writeValueAsString(lease), version) == null) {
+            log.warn("$url lease was taken over by another worker before it was finished")
+        }
+    }
+
+    @Synchronized
+    private fun renew() {
+        held.forEach { url, version ->
+            try {
+                val renewed = keyValueRepository.compareAndSave(key(url), lease(), version)
+                if (renewed == null) {
+                    log.warn("$url lease lost, another worker took it over")
+                    held.remove(url, version)
+                } else {
+                    held.replace(url, version, renewed)
+                }
+            } catch (e: Exception) {
+                log.warn("$url lease not renewed: ${e.message}")
+            }
+        }
+    }
+
+    private fun lease() = objectMapper.writeValueAsString(Lease(worker, System.currentTimeMillis() + leaseTimeoutInMs, false))
+
+    private fun key(url: String) = "$KEY_PREFIX.$run.$url"
+
+    data class Lease(val worker: String, val expires: Long, val done: Boolean)
+
+    enum class Claim {
+        CLAIMED,
+        HELD,
+        DONE
+    }
+}
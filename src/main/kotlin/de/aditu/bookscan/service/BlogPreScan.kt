@@ -1,22 +1,31 @@
 package de.aditu.bookscan.service
 
 import de.aditu.bookscan.model.UrlEntry
+import de.aditu.bookscan.web.ArticleDiscovery
+import de.aditu.bookscan.web.LinkScorer
 import de.aditu.bookscan.web.WebSiteFetcher
 import de.aditu.bookscan.web.WebSiteParser
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.http.HttpStatus
 import org.springframework.stereotype.Service
 import org.springframework.web.reactive.function.client.WebClientResponseException
+import java.io.File
 import java.util.*
+import java.util.concurrent.TimeUnit
 
 /**
  * prescan for all blogs which checks whether blog articles can be fetched correctly
+ * blogs with an unchanged url entry and a successful prescan within the cache ttl are not scanned again
  */
 @Service
 class BlogPreScan(@Autowired private val blogScanStarter: BlogScanStarter,
                   @Autowired private val webSiteFetcher: WebSiteFetcher,
-                  @Autowired private val webSiteParser: WebSiteParser) {
+                  @Autowired private val webSiteParser: WebSiteParser,
+                  @Autowired private val articleDiscovery: ArticleDiscovery,
+                  @Value("\${crawler.prescanCacheFile:./prescan-cache.jsonl}") private val cacheFile: String,
+                  @Value("\${crawler.prescanCacheTtlDays:7}") private val cacheTtlDays: Long) {
 
     companion object {
         private val MAX_PARSE_LIMIT = 350
@@ -27,16 +36,41 @@ class BlogPreScan(@Autowired private val blogScanStarter: BlogScanStarter,
     private val log = LoggerFactory.getLogger(this.javaClass)
     private var counter = 0
 
-    fun scan(file: String) = blogScanStarter.start(file, { scan(it) })
+    fun scan(file: String) {
+        val cache = PreScanCache(File(cacheFile), TimeUnit.DAYS.toMillis(cacheTtlDays))
+        try {
+            blogScanStarter.start(file, { urlEntry ->
+                if (cache.get(urlEntry) != null) {
+                    synchronized(this) {
+                        counter++
+                        log.info("$counter SUCCESS ${urlEntry.url} (cached)")
+                    }
+                } else {
+                    val results = scan(urlEntry)
+                    cache.put(urlEntry, hasMininumSuccessPages(results, urlEntry.preScanMinPageCount ?: DEFAULT_MIN_PAGE_COUNT), results)
+                }
+            })
+        } finally {
+            cache.close()
+        }
+    }
 
-    fun scan(urlEntry: UrlEntry, detailedError: Boolean = false) {
-        val results = mutableListOf<PreScanResult>()
+    fun scan(urlEntry: UrlEntry, detailedError: Boolean = false): List<PreScanResult> {
+        val results = Collections.synchronizedList(mutableListOf<PreScanResult>())
+        // the prescan only samples a few hundred pages, walking all archive pages would cost more than the sample
+        val discovered = articleDiscovery.discover(urlEntry, traverseArchives = false)
+        val linkScorer = LinkScorer(urlEntry, webSiteParser)
 
         webSiteFetcher.start(
                 url = urlEntry.getFetchUrl(),
                 limit = MAX_PARSE_LIMIT,
                 simulateBrowser = urlEntry.simulateBrowser == true,
+                seeds = discovered.urls,
+                followLinks = !discovered.complete,
                 ignore = listOf("search/", "tag/", "tag=", "schlagwort/", "author/"),
+                // detailed errors report every page, also the ones which are no article candidates
+                needsDocument = { detailedError || webSiteParser.isArticlePageCandidate(it, urlEntry) },
+                priority = { linkScorer.score(it) },
                 success = { content, url ->
                     val parseResult = webSiteParser.parse(url, content, urlEntry)
 
@@ -74,6 +108,7 @@ class BlogPreScan(@Autowired private val blogScanStarter: BlogScanStarter,
                     }
 
                     results.add(PreScanResult(url, resultTypes))
+                    linkScorer.learn(url, parseResult.isArticlePage && !parseResult.isOverviewPage)
 
                     if (detailedError) {
                         log.info("$url $resultTypes")
@@ -103,14 +138,15 @@ class BlogPreScan(@Autowired private val blogScanStarter: BlogScanStarter,
                 log.info("$counter FAIL ${urlEntry.url}")
             }
         }
+        return results.toList()
     }
 
-    private fun hasMininumSuccessPages(results: MutableList<PreScanResult>, successPageCount: Int): Boolean =
-        results.filter { it.result.contains(PreScanResultType.SUCCESS) }.count() >= successPageCount
+    private fun hasMininumSuccessPages(results: List<PreScanResult>, successPageCount: Int): Boolean =
+        synchronized(results) { results.filter { it.result.contains(PreScanResultType.SUCCESS) }.count() } >= successPageCount
 
-    private data class PreScanResult(val url: String, val result: List<PreScanResultType>)
+    data class PreScanResult(val url: String, val result: List<PreScanResultType>)
 
-    private enum class PreScanResultType {
+    enum class PreScanResultType {
         SUCCESS,
         NO_DATE_FOUND,
         INVALID_DATE_FOUND,
@@ -1,76 +1,140 @@
 package de.aditu.bookscan.service
 
 import de.aditu.bookscan.elasticsearch.BlogArticleRepository
+import de.aditu.bookscan.elasticsearch.BlogArticleSink
 import de.aditu.bookscan.elasticsearch.BlogRepository
+import de.aditu.bookscan.elasticsearch.PageValidatorRepository
 import de.aditu.bookscan.model.Blog
 import de.aditu.bookscan.model.BlogArticle
 import de.aditu.bookscan.model.UrlEntry
+import de.aditu.bookscan.telemetry.CrawlTelemetry
+import de.aditu.bookscan.web.ApiHarvester
+import de.aditu.bookscan.web.ArticleDiscovery
+import de.aditu.bookscan.web.CrawlFrontier
+import de.aditu.bookscan.web.LinkScorer
+import de.aditu.bookscan.web.PageArchive
+import de.aditu.bookscan.web.PageValidators
 import de.aditu.bookscan.web.WebSiteFetcher
 import de.aditu.bookscan.web.WebSiteParser
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Service
+import java.io.File
 import java.util.*
 
 /**
  * fetches all blog articles and saves it into elasticsearch
+ * in incremental mode already scanned blogs are fetched again with conditional requests, only new or changed pages are parsed
+ * in replay mode all blogs are parsed again from the page archive
+ * in api harvest mode wordpress and blogger posts are loaded by their json apis, other blogs are crawled
  */
 @Service
 class BlogScan(@Autowired private val blogScanStarter: BlogScanStarter,
                @Autowired private val webSiteFetcher: WebSiteFetcher,
                @Autowired private val webSiteParser: WebSiteParser,
+               @Autowired private val articleDiscovery: ArticleDiscovery,
+               @Autowired private val apiHarvester: ApiHarvester,
                @Autowired private val blogRepository: BlogRepository,
-               @Autowired private val blogArticleRepository: BlogArticleRepository) {
+               @Autowired private val blogArticleRepository: BlogArticleRepository,
+               @Autowired private val blogArticleSink: BlogArticleSink,
+               @Autowired private val pageValidatorRepository: PageValidatorRepository,
+               @Autowired private val pageArchive: PageArchive,
+               @Autowired private val telemetry: CrawlTelemetry,
+               @Autowired private val costHistory: CrawlCostHistory,
+               @Autowired private val leases: BlogLeases,
+               @Value("\${crawler.incremental:false}") private val incremental: Boolean,
+               @Value("\${crawler.apiHarvest:false}") private val apiHarvest: Boolean,
+               @Value("\${crawler.frontierPath:./frontier}") private val frontierPath: String,
+               @Value("\${crawler.telemetryFile:./crawl-telemetry.json}") private val telemetryFile: String) {
 
     companion object {
-        private val MAX_QUEUE_SIZE = 50
         private val ARTICLE_MIN_LENGTH = 600
+        private val VALIDATOR_CHUNK_SIZE = 1000
     }
 
     private val log = LoggerFactory.getLogger(this.javaClass)
     private var counter = 0
 
-    fun scan(file: String) = blogScanStarter.start(file, { scan(it) })
+    fun scan(file: String) {
+        blogScanStarter.start(file, { scan(it) }, leases = leases, costHistory = costHistory)
+        telemetry.dump(File(telemetryFile))
+        log.info("telemetry written to $telemetryFile")
+    }
 
     private fun scan(urlEntry: UrlEntry) {
-        if (blogRepository.findByUrl(urlEntry.url) != null) {
+        val replay = pageArchive.replaying
+        if (!incremental && !replay && blogRepository.findByUrl(urlEntry.url) != null) {
             log.info("${urlEntry.url} already fetched ${counter++}")
             return
         }
         log.info("${urlEntry.url} started")
+        telemetry.blogStarted()
+        try {
+            if (!apiHarvest || urlEntry.simulateBrowser == true || pageArchive.replaying || !harvest(urlEntry)) {
+                fetch(urlEntry)
+            }
+            finish(urlEntry)
+        } finally {
+            telemetry.blogFinished()
+        }
+        log.info("${urlEntry.url} finished ${counter++}")
+    }
 
-        var queue = mutableListOf<BlogArticle>()
+    private fun fetch(urlEntry: UrlEntry) {
+        val replay = pageArchive.replaying
 
         val ignore = mutableListOf("/search", "/feed", "/feeds")
         if (urlEntry.ignoreUrl != null) {
             ignore.addAll(urlEntry.ignoreUrl)
         }
-        ignore.addAll(blogArticleRepository.findAllFetchedUrls(urlEntry.url))
+        val validators = if (replay) {
+            PageValidators(urlEntry.url)
+        } else if (incremental) {
+            PageValidators(urlEntry.url, pageValidatorRepository.findAllByBlogUrl(urlEntry.url))
+        } else {
+            ignore.addAll(blogArticleRepository.findAllFetchedUrls(urlEntry.url))
+            PageValidators(urlEntry.url)
+        }
+
+        val discovered = articleDiscovery.discover(urlEntry)
+        log.info("${urlEntry.url} ${discovered.urls.size} articles discovered")
+
+        val frontier = CrawlFrontier.open(frontierPath, urlEntry.url)
+        val linkScorer = LinkScorer(urlEntry, webSiteParser)
 
         webSiteFetcher.start(
                 url = urlEntry.getFetchUrl(),
                 ignore = ignore,
                 simulateBrowser = urlEntry.simulateBrowser == true,
+                validators = validators,
+                seeds = discovered.urls,
+                followLinks = !discovered.complete,
+                needsDocument = { webSiteParser.isArticlePageCandidate(it, urlEntry) },
+                frontier = frontier,
+                priority = { linkScorer.score(it) },
                 success = { content, url ->
                     val parseResult = webSiteParser.parse(url, content, urlEntry)
 
                     if (!parseResult.isArticlePage || parseResult.isOverviewPage || parseResult.title == null || parseResult.article == null || parseResult.article.length < ARTICLE_MIN_LENGTH) {
+                        linkScorer.learn(url, false)
                         return@start true
                     }
+                    linkScorer.learn(url, true)
 
                     val date = parseResult.date ?: Date(0)
 
-                    queue.add(BlogArticle(
+                    // the page stays pending in the frontier until its article is saved
+                    frontier.awaitSave(url)
+                    val added = blogArticleSink.add(BlogArticle(
                             url = url,
                             blogUrl = urlEntry.url,
                             date = date,
                             title = parseResult.title,
                             content = parseResult.article
-                    ))
-
-                    if (queue.size > MAX_QUEUE_SIZE) {
-                        blogArticleRepository.save(queue)
-                        queue = mutableListOf()
+                    ), { frontier.saved(url) })
+                    if (!added) {
+                        frontier.saved(url)
                     }
 
                     true
@@ -79,14 +143,32 @@ class BlogScan(@Autowired private val blogScanStarter: BlogScanStarter,
                     true
                 })
 
-        if (queue.size > 0) {
-            blogArticleRepository.save(queue)
+        blogArticleSink.awaitSaved(urlEntry.url)
+        frontier.finish()
+        if (!replay) {
+            validators.updated().chunked(VALIDATOR_CHUNK_SIZE).forEach { pageValidatorRepository.save(it) }
         }
+    }
 
+    // posts of the json api are saved without fetching and parsing the html pages
+    private fun harvest(urlEntry: UrlEntry) =
+            apiHarvester.harvest(urlEntry) { post ->
+                if (post.content.length >= ARTICLE_MIN_LENGTH) {
+                    blogArticleSink.add(BlogArticle(
+                            url = post.url,
+                            blogUrl = urlEntry.url,
+                            date = post.date ?: Date(0),
+                            title = post.title,
+                            content = post.content
+                    ))
+                }
+            }
+
+    private fun finish(urlEntry: UrlEntry) {
+        blogArticleSink.awaitSaved(urlEntry.url)
         if (blogArticleRepository.countByBlogUrl(urlEntry.url) > 0) {
             blogRepository.save(Blog(urlEntry.url, Date()))
         }
-        log.info("${urlEntry.url} finished ${counter++}")
     }
 
 }
\ No newline at end of file
@@ -3,58 +3,64 @@ package de.aditu.bookscan.service
 import com.fasterxml.jackson.core.type.TypeReference
 import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
 import de.aditu.bookscan.model.UrlEntry
+import de.aditu.bookscan.telemetry.CrawlTelemetry
+import de.aditu.bookscan.web.ConnectionMetrics
+import de.aditu.bookscan.web.DnsCache
+import de.aditu.bookscan.web.HostRateController
+import de.aditu.bookscan.web.PageArchive
 import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Service
 import java.io.File
-import java.util.concurrent.*
 import java.util.stream.Collectors
 
 /**
  * starts the parallel blogprescan or blogscan with threads
- * uses different threadpools for blog with blogspot url, wordpress url, own domains and chromedriver processed urls
+ * all blogs share one queue, the crawl scheduler limits the concurrency per host and per platform
+ * (blogspot url, wordpress url, own domains and chromedriver processed urls)
+ * blogs are queued longest job first by the crawl cost history of the full scan, alphabetically otherwise
  */
 @Service
-class BlogScanStarter {
-
-    companion object {
-        private val THREADPOOL_SIZE_CHROMEDRIVER = 1
-        private val THREADPOOL_SIZE_BLOGSPOT = 2
-        private val THREADPOOL_SIZE_WORDPRESS = 2
-        private val THREADPOOL_SIZE_OTHERS = 10
-    }
+class BlogScanStarter(@Autowired private val rateController: HostRateController,
+                      @Autowired private val connectionMetrics: ConnectionMetrics,
+                      @Autowired private val telemetry: CrawlTelemetry,
+                      @Autowired private val dnsCache: DnsCache,
+                      @Autowired private val taskRunner: TaskRunner,
+                      @Autowired private val preflight: LivenessPreflight,
+                      @Autowired private val pageArchive: PageArchive,
+                      @Value("\${crawler.browserPoolSize:4}") private val browserPoolSize: Int) {
 
     private val log = LoggerFactory.getLogger(this.javaClass)
 
-    fun start(file: String, callback: (urlEntry: UrlEntry) -> Unit) {
+    /**
+     * @param leases claim every blog by a lease, so several processes can scan the same blogs
+     * @param costHistory orders the blogs longest job first and records their durations. only given by the full scan,
+     * the prescan samples a limited number of pages and its durations would distort the history
+     */
+    fun start(file: String, callback: (urlEntry: UrlEntry) -> Unit, leases: BlogLeases? = null, costHistory: CrawlCostHistory? = null) {
         var urls = jacksonObjectMapper().readValue<List<UrlEntry>>(File(file), object : TypeReference<List<UrlEntry>>() {})
         log.info("${urls.size} URLs loaded")
 
-        urls = urls.stream().sorted({u1, u2 -> u1.url.compareTo(u2.url)}).collect(Collectors.toList())
-
-        val chromedriverTasks = urls.filter { it.simulateBrowser == true }.map { Runnable { callback(it) } }
-        val blogspotTasks = urls.filter { it.getFetchUrl().contains("blogspot") && it.simulateBrowser != true }.map { Runnable { callback(it) } }
-        val wordpressTasks = urls.filter { it.getFetchUrl().contains("wordpress") && it.simulateBrowser != true }.map { Runnable { callback(it) } }
-        val othersTasks = urls.filter { !it.getFetchUrl().contains("wordpress") && !it.getFetchUrl().contains("blogspot") && it.simulateBrowser != true}
-                .map { Runnable { callback(it) } }
+        // a replayed scan reads all pages from the archive and needs neither dns nor liveness checks
+        if (!pageArchive.replaying) {
+            dnsCache.preResolve(urls.flatMap { listOfNotNull(it.url, it.frame, it.feed) })
+            urls = preflight.check(urls)
+        }
 
-        val chromedriverExecutor = start(chromedriverTasks, THREADPOOL_SIZE_CHROMEDRIVER)
-        val blogspotExecutor = start(blogspotTasks, THREADPOOL_SIZE_BLOGSPOT)
-        val wordpressExecutor = start(wordpressTasks, THREADPOOL_SIZE_WORDPRESS)
-        val othersExecutor = start(othersTasks, THREADPOOL_SIZE_OTHERS)
+        urls = costHistory?.sort(urls) ?: urls.stream().sorted({u1, u2 -> u1.url.compareTo(u2.url)}).collect(Collectors.toList())
 
-        chromedriverExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS)
-        blogspotExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS)
-        wordpressExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS)
-        othersExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS)
-
-        log.info("finished")
-    }
+        val scheduler = CrawlScheduler(browserSessions = browserPoolSize, isBlocked = { rateController.isBlocked(it) }, taskRunner = taskRunner, leases = leases)
+        telemetry.gauge("crawler.blogs.pending", { scheduler.pendingCount() })
+        telemetry.gauge("crawler.http.connections.open", { connectionMetrics.openConnections() })
+        scheduler.run(urls, { urlEntry ->
+            val started = System.currentTimeMillis()
+            callback(urlEntry)
+            costHistory?.record(urlEntry, System.currentTimeMillis() - started)
+        })
+        costHistory?.save()
 
-    private fun start(tasks: List<Runnable>, threads: Int): ExecutorService {
-        val executor = Executors.newFixedThreadPool(threads)
-        tasks.forEach { executor.execute(it) }
-        executor.shutdown()
-        return executor
+        log.info("finished, http connections: $connectionMetrics")
     }
 
-}
\ No newline at end of file
+}
@@ -17,13 +17,15 @@ import org.springframework.stereotype.Service
 class BookScan(@Autowired private val bookMatchRepository: BookMatchRepository,
                @Autowired private val bookRepository: BookRepository,
                @Autowired private val blogArticleRepository: BlogArticleRepository,
-               @Autowired private val keyValueRepository: KeyValueRepository) {
+               @Autowired private val keyValueRepository: KeyValueRepository,
+               @Autowired private val taskRunner: TaskRunner) {
 
     private val log = LoggerFactory.getLogger(this.javaClass)
 
     companion object {
         private val PROCESSED_CHUNK_KEY = "book_scan_processed_chunk"
         private val CHUNK_SIZE = 25_000
+        private val VIRTUAL_MAX_CONCURRENT_CHUNKS = 8
     }
 
     fun scan() {
@@ -35,23 +37,32 @@ class BookScan(@Autowired private val bookMatchRepository: BookMatchRepository,
         log.info("finished")
     }
 
+    // with virtual threads several chunks are searched at once, the processed chunk key is the last chunk of the completed prefix
     private fun searchBooksInArticles() {
         var index = 0
         val start = Integer.parseInt(keyValueRepository.load(PROCESSED_CHUNK_KEY, "-1"))
-        bookRepository.chunk(CHUNK_SIZE) { books ->
-            if (index <= start) {
-                log.info("$index book chunk loaded; ignore processed chunk")
-                index++
-                return@chunk
+        val processed = ProcessedChunks(start)
+        val stage = taskRunner.stage(1, VIRTUAL_MAX_CONCURRENT_CHUNKS)
+        try {
+            bookRepository.chunk(CHUNK_SIZE) { books ->
+                val chunk = index++
+                if (chunk <= start) {
+                    log.info("$chunk book chunk loaded; ignore processed chunk")
+                    return@chunk
+                }
+
+                log.info("$chunk book chunk loaded; ${books.size} books")
+                stage.submit {
+                    val found = blogArticleRepository.findByBooks(books)
+                    if (found.isNotEmpty()) {
+                        bookMatchRepository.save(found)
+                    }
+                    processed.completed(chunk, { keyValueRepository.save(PROCESSED_CHUNK_KEY, it.toString()) })
+                    log.info("$chunk book chunk processed")
+                }
             }
-
-            log.info("$index book chunk loaded; ${books.size} books")
-            val found = blogArticleRepository.findByBooks(books)
-            if (found.isNotEmpty()) {
-                bookMatchRepository.save(found)
-            }
-            keyValueRepository.save(PROCESSED_CHUNK_KEY, index.toString())
-            log.info("${index++} book chunk processed; ${index * CHUNK_SIZE} books searched")
+        } finally {
+            stage.await()
         }
     }
 
@@ -88,6 +99,19 @@ class BookScan(@Autowired private val bookMatchRepository: BookMatchRepository,
         return accepted.distinctBy { it.book }
     }
 
+    private class ProcessedChunks(private var last: Int) {
+        private val completed = mutableSetOf<Int>()
 
-
-}
\ No newline at end of file
+        @Synchronized
+        fun completed(chunk: Int, save: (last: Int) -> Unit) {
+            completed.add(chunk)
+            if (!completed.contains(last + 1)) {
+                return
+            }
+            while (completed.remove(last + 1)) {
+                last++
+            }
+            save(last)
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package de.aditu.bookscan.service
+
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import com.fasterxml.jackson.module.kotlin.readValue
+import de.aditu.bookscan.elasticsearch.BlogArticleRepository
+import de.aditu.bookscan.model.UrlEntry
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * crawl duration of every blog in previous runs. blogs are started longest job first, so the largest blogs
+ * don't start at the end of a run while most workers are idle.
+ * blogs without history are estimated by their number of saved articles, unknown blogs by the average duration.
+ */
+@Component
+class CrawlCostHistory(@Autowired private val blogArticleRepository: BlogArticleRepository,
+                       @Value("\${crawler.costHistoryFile:./crawl-cost.json}") private val file: String) {
+
+    companion object {
+        private val COUNT_CHUNK_SIZE = 500
+        private val SAVE_EVERY = 50
+        private val DEFAULT_DURATION_IN_MS = 60_000L
+        private val MIN_DURATION_IN_MS = 1000L
+    }
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+    private val objectMapper = jacksonObjectMapper()
+
+    private val entries = ConcurrentHashMap<String, Entry>(load())
+    private val articleCounts = ConcurrentHashMap<String, Long>()
+    private val unsaved = AtomicInteger()
+
+    /**
+     * @return the blogs ordered by their estimated crawl duration, the most expensive first
+     */
+    fun sort(urlEntries: List<UrlEntry>): List<UrlEntry> {
+        val articles = countArticles(urlEntries.map { it.url })
+        articleCounts.putAll(articles)
+        val known = entries.values.filter { it.articles > 0 }
+        val msPerArticle = if (known.isEmpty()) null else known.sumByDouble { it.durationInMs.toDouble() } / known.sumByDouble { it.articles.toDouble() }
+        val average = if (entries.isEmpty()) DEFAULT_DURATION_IN_MS else entries.values.map { it.durationInMs }.average().toLong()
+
+        val estimates = urlEntries.associate { urlEntry ->
+            val count = articles[urlEntry.url] ?: 0L
+            urlEntry.url to when {
+                entries.containsKey(urlEntry.url) -> entries[urlEntry.url]!!.durationInMs
+                count > 0 && msPerArticle != null -> (count * msPerArticle).toLong()
+                else -> average
+            }
+        }
+        log.info("estimated crawl duration ${estimates.values.sum() / 1000}s, ${urlEntries.count { entries.containsKey(it.url) }} blogs with history")
+        return urlEntries.sortedWith(compareByDescending<UrlEntry> { estimates[it.url] }.thenBy { it.url })
+    }
+
+    /**
+     * records the crawl duration of the blog with the number of articles saved before the run,
+     * the history is saved every 50 blogs. blogs which finished within a second were skipped and keep their history
+     */
+    fun record(urlEntry: UrlEntry, durationInMs: Long) {
+        if (durationInMs < MIN_DURATION_IN_MS) {
+            return
+        }
+        val articles = articleCounts[urlEntry.url] ?: entries[urlEntry.url]?.articles ?: 0L
+        entries[urlEntry.url] = Entry(urlEntry.url, durationInMs, articles)
+        if (unsaved.incrementAndGet() >= SAVE_EVERY) {
+            save()
+        }
+    }
+
+    @Synchronized
+    fun save() {
+        unsaved.set(0)
+        val target = File(file)
+        target.absoluteFile.parentFile?.mkdirs()
+        val tmp = File(file + ".tmp")
+        objectMapper.writeValue(tmp, entries.values.sortedBy { it.url })
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    private fun countArticles(urls: List<String>): Map<String, Long> {
+        if (urls.isEmpty()) {
+            return mapOf()
+        }
+        return try {
+            urls.chunked(COUNT_CHUNK_SIZE).flatMap { blogArticleRepository.countByBlogUrl(it).toList() }.toMap()
+        } catch (e: Exception) {
+            log.warn("articles per blog not available: ${e.message}")
+            mapOf()
+        }
+    }
+
+    private fun load(): Map<String, Entry> {
+        val source = File(file)
+        if (!source.exists()) {
+            return mapOf()
+        }
+        return try {
+            objectMapper.readValue<List<Entry>>(source).associateBy { it.url }
+        } catch (e: Exception) {
+            log.warn("crawl cost history $file not readable: ${e.message}")
+            mapOf()
+        }
+    }
+
+    data class Entry(val url: String, val durationInMs: Long, val articles: Long)
+}
@@ -0,0 +1,142 @@
+package de.aditu.bookscan.service
+
+import de.aditu.bookscan.model.UrlEntry
+import org.slf4j.LoggerFactory
+import java.net.URI
+import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * schedules blogs from one shared queue on a fixed number of worker threads.
+ * concurrency is limited per host and per platform (blogspot, wordpress, self hosted, browser simulated),
+ * a free worker always takes the first pending blog whose host and platform have a free slot, so a worker is never
+ * bound to a platform and takes over expensive blogs of other platforms as soon as they have a free slot.
+ * blogs of hosts which asked us to back off (Retry-After) are postponed until the host is unblocked.
+ * in a cluster crawl every blog is claimed by a lease first, blogs held by other workers are checked again later
+ * until they are done or their lease expired.
+ */
+class CrawlScheduler(private val threads: Int = THREADS,
+                     private val maxPerHost: Int = MAX_PER_HOST,
+                     private val browserSessions: Int = Platform.BROWSER.maxConcurrency,
+                     private val isBlocked: (host: String) -> Boolean = { false },
+                     private val taskRunner: TaskRunner? = null,
+                     private val leases: BlogLeases? = null) {
+
+    companion object {
+        private val THREADS = 15
+        private val MAX_PER_HOST = 1
+        private val BLOCKED_RECHECK_IN_MS = 1000L
+
+        fun platformOf(urlEntry: UrlEntry): Platform {
+            val fetchUrl = urlEntry.getFetchUrl()
+            return when {
+                urlEntry.simulateBrowser == true -> Platform.BROWSER
+                fetchUrl.contains("blogspot") -> Platform.BLOGSPOT
+                fetchUrl.contains("wordpress") -> Platform.WORDPRESS
+                else -> Platform.SELF_HOSTED
+            }
+        }
+
+        fun hostOf(urlEntry: UrlEntry): String =
+                try { URI(urlEntry.getFetchUrl()).host?.toLowerCase() ?: urlEntry.getFetchUrl() } catch (e: Exception) { urlEntry.getFetchUrl() }
+    }
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+
+    private val lock = Object()
+    private val pending = LinkedList<UrlEntry>()
+    private val runningByPlatform = EnumMap<Platform, Int>(Platform::class.java)
+    private val runningByHost = mutableMapOf<String, Int>()
+    private val postponedUntil = mutableMapOf<String, Long>()
+
+    /**
+     * runs the callback for every entry and blocks until all entries are processed
+     * @param entries the blogs in the order they should be started
+     * @param callback will be executed for every blog
+     */
+    fun run(entries: List<UrlEntry>, callback: (urlEntry: UrlEntry) -> Unit) {
+        synchronized(lock) {
+            pending.addAll(entries)
+        }
+
+        val executor = taskRunner?.executor(threads) ?: Executors.newFixedThreadPool(threads)
+        repeat(threads) { executor.execute { work(callback) } }
+        executor.shutdown()
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS)
+    }
+
+    fun pendingCount() = synchronized(lock) { pending.size }
+
+    private fun work(callback: (urlEntry: UrlEntry) -> Unit) {
+        loop@ while (true) {
+            val urlEntry = take() ?: return
+            val claim = try {
+                leases?.claim(urlEntry.url) ?: BlogLeases.Claim.CLAIMED
+            } catch (e: Exception) {
+                log.warn("${urlEntry.url} lease not available: ${e.message}")
+                BlogLeases.Claim.HELD
+            }
+            when (claim) {
+                BlogLeases.Claim.DONE -> { release(urlEntry); continue@loop }
+                BlogLeases.Claim.HELD -> { postpone(urlEntry); continue@loop }
+                BlogLeases.Claim.CLAIMED -> {}
+            }
+            try {
+                callback(urlEntry)
+                leases?.complete(urlEntry.url)
+            } catch (e: Exception) {
+                log.error("${urlEntry.url} failed", e)
+                leases?.release(urlEntry.url)
+            } finally {
+                release(urlEntry)
+            }
+        }
+    }
+
+    // blog is held by another worker, checked again when its lease could have expired
+    private fun postpone(urlEntry: UrlEntry) = synchronized(lock) {
+        postponedUntil[urlEntry.url] = System.currentTimeMillis() + (leases?.leaseTimeoutInMs ?: 0L) / 2
+        pending.addLast(urlEntry)
+        runningByPlatform.merge(platformOf(urlEntry), -1, Int::plus)
+        runningByHost.merge(hostOf(urlEntry), -1, Int::plus)
+        lock.notifyAll()
+    }
+
+    private fun take(): UrlEntry? = synchronized(lock) {
+        while (pending.isNotEmpty()) {
+            val next = pending.firstOrNull { canStart(it) }
+            if (next != null) {
+                pending.remove(next)
+                runningByPlatform.merge(platformOf(next), 1, Int::plus)
+                runningByHost.merge(hostOf(next), 1, Int::plus)
+                return next
+            }
+            lock.wait(BLOCKED_RECHECK_IN_MS)
+        }
+        null
+    }
+
+    private fun release(urlEntry: UrlEntry) = synchronized(lock) {
+        runningByPlatform.merge(platformOf(urlEntry), -1, Int::plus)
+        runningByHost.merge(hostOf(urlEntry), -1, Int::plus)
+        lock.notifyAll()
+    }
+
+    private fun canStart(urlEntry: UrlEntry): Boolean {
+        val platform = platformOf(urlEntry)
+        val maxConcurrency = if (platform == Platform.BROWSER) browserSessions else platform.maxConcurrency
+        val host = hostOf(urlEntry)
+        return runningByPlatform[platform] ?: 0 < maxConcurrency
+                && runningByHost[host] ?: 0 < maxPerHost
+                && postponedUntil[urlEntry.url] ?: 0L <= System.currentTimeMillis()
+                && !isBlocked(host)
+    }
+
+    enum class Platform(val maxConcurrency: Int) {
+        BROWSER(1),
+        BLOGSPOT(6),
+        WORDPRESS(6),
+        SELF_HOSTED(15)
+    }
+}
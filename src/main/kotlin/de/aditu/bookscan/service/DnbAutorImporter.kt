@@ -10,7 +10,6 @@ import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Service
 import java.util.*
 import java.util.concurrent.Callable
-import java.util.concurrent.Executors
 import java.util.concurrent.atomic.AtomicInteger
 
 data class DnbAuthor(var dnbId: String? = null, var surname: String? = null, var forename: String? = null)
@@ -20,7 +19,8 @@ data class DnbAuthor(var dnbId: String? = null, var surname: String? = null, var
  */
 @Service
 class DnbAutorImporter(@Autowired private val rdfParser: RdfParser,
-                       @Autowired private val bookRepository: BookRepository) {
+                       @Autowired private val bookRepository: BookRepository,
+                       @Autowired private val taskRunner: TaskRunner) {
 
     private val log = LoggerFactory.getLogger(this.javaClass)
 
@@ -72,7 +72,7 @@ class DnbAutorImporter(@Autowired private val rdfParser: RdfParser,
     }
 
     private fun assignAuthors(dnbAuthors: Map<String, List<DnbAuthor>>) {
-        val threadPool = Executors.newFixedThreadPool(THREADPOOL_SIZE)
+        val threadPool = taskRunner.executor(THREADPOOL_SIZE)
 
         var index = 0
         val count = AtomicInteger()
@@ -110,6 +110,7 @@ class DnbAutorImporter(@Autowired private val rdfParser: RdfParser,
             }
             log.info("${index++} book chunk processed")
         }
+        threadPool.shutdown()
     }
 
     private fun assignAuthor(book: Book, dnbAuthors: Map<String, List<DnbAuthor>>): Action {
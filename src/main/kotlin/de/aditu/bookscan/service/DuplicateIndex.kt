@@ -0,0 +1,96 @@
+package de.aditu.bookscan.service
+
+import de.aditu.bookscan.calc.SimHash
+import de.aditu.bookscan.elasticsearch.BlogArticleRepository
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import java.util.concurrent.CountDownLatch
+import javax.annotation.PostConstruct
+
+/**
+ * in memory index of the simhash fingerprints of all blog articles for finding near duplicates
+ * (print views, mobile urls, syndicated reviews). the fingerprint is split into bands, two fingerprints within the
+ * maximum hamming distance share at least one band, so only the articles in the same band buckets are compared.
+ * dropping duplicates is lossy (syndicated copies on other blogs are dropped too) and disabled by default.
+ * if enabled, fingerprints of saved articles are loaded from elasticsearch in the background at startup.
+ * articles saved while dedupe was disabled have no fingerprint and are not found as duplicates.
+ */
+@Component
+class DuplicateIndex(@Autowired private val blogArticleRepository: BlogArticleRepository,
+                     @Value("\${crawler.dedupe:false}") val enabled: Boolean,
+                     @Value("\${crawler.duplicateMaxDistance:3}") private val maxDistance: Int) {
+
+    companion object {
+        private val BANDS = 4
+        private val BAND_BITS = 64 / BANDS
+        private val BAND_MASK = (1L shl BAND_BITS) - 1
+    }
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+
+    private val buckets = Array(BANDS) { mutableMapOf<Int, MutableList<Entry>>() }
+    private val loaded = CountDownLatch(1)
+
+    @PostConstruct
+    fun start() {
+        if (enabled) {
+            Thread({ load() }, "duplicate-index").apply { isDaemon = true }.start()
+        }
+    }
+
+    /**
+     * adds the article to the index unless a near duplicate with another url is already indexed.
+     * waits for the fingerprints of elasticsearch without holding the index lock
+     * @return the url of the near duplicate or null if the article is new or dedupe is disabled
+     */
+    fun addOrFindDuplicate(url: String, fingerprint: Long): String? {
+        if (!enabled) {
+            return null
+        }
+        loaded.await()
+        return synchronized(this) { addOrFind(url, fingerprint) }
+    }
+
+    private fun addOrFind(url: String, fingerprint: Long): String? {
+        val candidates = candidates(fingerprint).toList()
+        val duplicate = candidates.firstOrNull { it.url != url && SimHash.distance(it.fingerprint, fingerprint) <= maxDistance }
+        if (duplicate != null) {
+            return duplicate.url
+        }
+        if (candidates.none { it.url == url && it.fingerprint == fingerprint }) {
+            add(Entry(url, fingerprint))
+        }
+        return null
+    }
+
+    private fun candidates(fingerprint: Long) =
+            (0 until BANDS).asSequence().flatMap { band -> buckets[band][band(fingerprint, band)]?.asSequence() ?: emptySequence() }
+
+    private fun add(entry: Entry) {
+        for (band in 0 until BANDS) {
+            buckets[band].getOrPut(band(entry.fingerprint, band), { mutableListOf() }).add(entry)
+        }
+    }
+
+    private fun band(fingerprint: Long, band: Int) = ((fingerprint ushr (band * BAND_BITS)) and BAND_MASK).toInt()
+
+    // the buckets are only read after the latch opened, no lock is needed while loading
+    private fun load() {
+        var count = 0
+        try {
+            blogArticleRepository.findAllSimhashes { url, fingerprint ->
+                add(Entry(url, fingerprint))
+                count++
+            }
+            log.info("$count article fingerprints loaded")
+        } catch (e: Exception) {
+            log.error("article fingerprints not loaded, only $count indexed: ${e.message}", e)
+        } finally {
+            loaded.countDown()
+        }
+    }
+
+    private class Entry(val url: String, val fingerprint: Long)
+}
@@ -0,0 +1,154 @@
+package de.aditu.bookscan.service
+
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import com.fasterxml.jackson.module.kotlin.readValue
+import de.aditu.bookscan.model.UrlEntry
+import io.netty.channel.ConnectTimeoutException
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.http.HttpMethod
+import org.springframework.http.HttpStatus
+import org.springframework.stereotype.Service
+import org.springframework.web.reactive.function.client.ClientResponse
+import org.springframework.web.reactive.function.client.WebClient
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.io.File
+import java.net.ConnectException
+import java.net.URI
+import java.net.UnknownHostException
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * checks the root url of every blog with short timeouts before the scan starts. redirects are followed and recorded.
+ * dead blogs (unknown host, connection refused, 404, 410) are skipped, redirected blogs are fetched from the final url.
+ * slow blogs which run into the timeout are not skipped, the scan uses longer timeouts and retries.
+ * results are persisted and reused until the ttl expired.
+ */
+@Service
+class LivenessPreflight(@Autowired private val webClient: WebClient,
+                        @Value("\${crawler.preflight:true}") private val enabled: Boolean,
+                        @Value("\${crawler.preflightFile:./preflight.json}") private val file: String,
+                        @Value("\${crawler.preflightTtlHours:24}") private val ttlInHours: Long) {
+
+    companion object {
+        private val CONCURRENCY = 64
+        private val TIMEOUT_IN_MS = 5000L
+        private val MAX_REDIRECTS = 5
+        private val MAX_DEAD_SHARE = 0.5
+        private val DEAD_STATUS = setOf(HttpStatus.NOT_FOUND.value(), HttpStatus.GONE.value())
+    }
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+    private val objectMapper = jacksonObjectMapper()
+
+    /**
+     * @param urlEntries all blogs
+     * @return the blogs which are alive, redirected blogs with the final url as fetch url
+     */
+    fun check(urlEntries: List<UrlEntry>): List<UrlEntry> {
+        if (!enabled) {
+            return urlEntries
+        }
+        val start = System.currentTimeMillis()
+        val cached = load()
+        val now = System.currentTimeMillis()
+        val ttl = TimeUnit.HOURS.toMillis(ttlInHours)
+        val toCheck = urlEntries.map { it.getFetchUrl() }.distinct().filter { (cached[it]?.checked ?: 0) < now - ttl }
+
+        val checked = Flux.fromIterable(toCheck)
+                .flatMap({ url -> check(url) }, CONCURRENCY)
+                .collectList()
+                .block() ?: listOf()
+        val results = cached + checked.associateBy { it.url }
+        save(results)
+
+        val dead = urlEntries.filter { results[it.getFetchUrl()]?.alive == false }
+        val redirected = urlEntries.filter { results[it.getFetchUrl()]?.redirectedTo != null }
+        log.info("preflight of ${toCheck.size} urls in ${System.currentTimeMillis() - start}ms: ${dead.size} dead, ${redirected.size} redirected")
+        dead.forEach { log.info("${it.url} dead: ${results[it.getFetchUrl()]?.reason}") }
+
+        if (dead.size > urlEntries.size * MAX_DEAD_SHARE) {
+            log.warn("more than half of the blogs are dead, probably a network problem: no blog is skipped")
+            return urlEntries
+        }
+        return urlEntries
+                .filter { results[it.getFetchUrl()]?.alive != false }
+                .map { entry ->
+                    val target = results[entry.getFetchUrl()]?.redirectedTo
+                    if (target != null) entry.copy(redirectedTo = target) else entry
+                }
+    }
+
+    private fun check(url: String): Mono<Result> =
+            follow(url, url, 0)
+                    .onErrorResume { Mono.just(Result(url, !isDead(it), null, it.javaClass.simpleName + ": " + it.message, System.currentTimeMillis())) }
+
+    private fun isDead(e: Throwable): Boolean =
+            when (e) {
+                is TimeoutException, is ConnectTimeoutException -> false
+                is UnknownHostException, is ConnectException, is IllegalArgumentException -> true
+                else -> e.cause != null && e.cause !== e && isDead(e.cause!!)
+            }
+
+    private fun follow(origin: String, url: String, redirects: Int): Mono<Result> =
+            request(HttpMethod.HEAD, url)
+                    .flatMap { if (needsGet(it.statusCode())) discard(it).then(request(HttpMethod.GET, url)) else Mono.just(it) }
+                    .flatMap { response ->
+                        val status = response.statusCode()
+                        val location = response.headers().asHttpHeaders().location
+                        discard(response).then(Mono.defer {
+                            when {
+                                status.is3xxRedirection && location != null && redirects < MAX_REDIRECTS ->
+                                    follow(origin, URI(url).resolve(location).toString(), redirects + 1)
+                                DEAD_STATUS.contains(status.value()) ->
+                                    Mono.just(Result(origin, false, null, "status ${status.value()}", System.currentTimeMillis()))
+                                else ->
+                                    Mono.just(Result(origin, true, if (isMoved(origin, url)) url else null, "status ${status.value()}", System.currentTimeMillis()))
+                            }
+                        })
+                    }
+
+    // some servers answer head requests with 405 or even 404/410, a blog is only dead if get fails too
+    private fun needsGet(status: HttpStatus) = status == HttpStatus.METHOD_NOT_ALLOWED || DEAD_STATUS.contains(status.value())
+
+    private fun discard(response: ClientResponse): Mono<Void> = response.bodyToMono(Void::class.java).onErrorResume { Mono.empty() }
+
+    private fun request(method: HttpMethod, url: String): Mono<ClientResponse> =
+            webClient.method(method)
+                    .uri(URI.create(url))
+                    .exchange()
+                    .timeout(Duration.ofMillis(TIMEOUT_IN_MS))
+
+    // a redirect to another host, path or scheme (http to https spares a redirect per request), not only to a trailing slash
+    private fun isMoved(origin: String, url: String): Boolean {
+        if (origin == url) {
+            return false
+        }
+        val from = URI(origin)
+        val to = URI(url)
+        return !from.host.equals(to.host, true) || from.path.trimEnd('/') != to.path.trimEnd('/') || from.scheme != to.scheme
+    }
+
+    private fun load(): Map<String, Result> {
+        val source = File(file)
+        if (!source.exists()) {
+            return mapOf()
+        }
+        return try {
+            objectMapper.readValue<List<Result>>(source).associateBy { it.url }
+        } catch (e: Exception) {
+            log.warn("preflight results $file not readable: ${e.message}")
+            mapOf()
+        }
+    }
+
+    private fun save(results: Map<String, Result>) {
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(File(file), results.values.toList())
+    }
+
+    data class Result(val url: String, val alive: Boolean, val redirectedTo: String?, val reason: String?, val checked: Long)
+}
@@ -0,0 +1,90 @@
+package de.aditu.bookscan.service
+
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import com.fasterxml.jackson.module.kotlin.readValue
+import com.google.common.hash.Hashing
+import de.aditu.bookscan.model.UrlEntry
+import java.io.BufferedWriter
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+
+/**
+ * prescan results keyed by a hash of the url entry json. successful results are reused until the url entry changed
+ * or the ttl expired, failed blogs are always scanned again.
+ * the cache is an append only json lines file, the last entry of an url wins. it is compacted when it is opened.
+ */
+class PreScanCache(private val file: File, private val ttlInMs: Long) {
+
+    companion object {
+        private val objectMapper = jacksonObjectMapper()
+
+        // without the redirect of the preflight, the result stays valid while the blog entry is unchanged
+        fun hash(urlEntry: UrlEntry): String =
+                Hashing.murmur3_128().hashString(objectMapper.writeValueAsString(urlEntry.copy(redirectedTo = null)), StandardCharsets.UTF_8).toString()
+    }
+
+    private val entries = mutableMapOf<String, Entry>()
+    private val writer: BufferedWriter
+
+    init {
+        if (file.exists()) {
+            file.forEachLine(StandardCharsets.UTF_8) { line ->
+                if (line.isNotBlank()) {
+                    try {
+                        val entry = objectMapper.readValue<Entry>(line)
+                        entries[entry.url] = entry
+                    } catch (e: Exception) {
+                        // incomplete last line of an interrupted run
+                    }
+                }
+            }
+            compact()
+        }
+        file.absoluteFile.parentFile?.mkdirs()
+        writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+    }
+
+    /**
+     * @return the cached result if the url entry did not change, the prescan succeeded and the ttl did not expire
+     */
+    @Synchronized
+    fun get(urlEntry: UrlEntry): Entry? {
+        val entry = entries[urlEntry.url] ?: return null
+        if (!entry.success || entry.hash != hash(urlEntry) || System.currentTimeMillis() - entry.timestamp > ttlInMs) {
+            return null
+        }
+        return entry
+    }
+
+    @Synchronized
+    fun put(urlEntry: UrlEntry, success: Boolean, results: List<BlogPreScan.PreScanResult>) {
+        val entry = Entry(urlEntry.url, hash(urlEntry), success, System.currentTimeMillis(), results)
+        entries[entry.url] = entry
+        writer.write(objectMapper.writeValueAsString(entry))
+        writer.newLine()
+        writer.flush()
+    }
+
+    @Synchronized
+    fun close() {
+        writer.close()
+    }
+
+    // rewrites the file with the last entry of every url
+    private fun compact() {
+        val compacted = File(file.path + ".tmp")
+        Files.newBufferedWriter(compacted.toPath(), StandardCharsets.UTF_8).use { out ->
+            entries.values.forEach { out.write(objectMapper.writeValueAsString(it)); out.newLine() }
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    data class Entry(val url: String,
+                     val hash: String,
+                     val success: Boolean,
+                     val timestamp: Long,
+                     val results: List<BlogPreScan.PreScanResult>)
+}
@@ -1,6 +1,8 @@
 package de.aditu.bookscan.service
 
 import de.aditu.bookscan.elasticsearch.*
+import de.aditu.bookscan.model.BookInfoToSave
+import de.aditu.bookscan.model.BookMatch
 import de.aditu.bookscan.model.BookMatchMerge
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
@@ -14,10 +16,15 @@ class StatsPrepare(@Autowired private val bookMatchRepository: BookMatchReposito
                    @Autowired private val bookMatchMergeRepository: BookMatchMergeRepository,
                    @Autowired private val blogArticleRepository: BlogArticleRepository,
                    @Autowired private val bookRepository: BookRepository,
-                   @Autowired private val bookInfoRepository: BookInfoRepository) {
+                   @Autowired private val bookInfoRepository: BookInfoRepository,
+                   @Autowired private val taskRunner: TaskRunner) {
 
     private val log = LoggerFactory.getLogger(this.javaClass)
 
+    companion object {
+        private val VIRTUAL_MAX_CONCURRENT_CHUNKS = 4
+    }
+
     fun start() {
         val existing = bookMatchMergeRepository.findAllUrls()
         log.info("all existing bookMatchMerge urls loaded")
@@ -26,56 +33,65 @@ class StatsPrepare(@Autowired private val bookMatchRepository: BookMatchReposito
         log.info("all bookInfos loaded")
 
         var index = 0
-        bookMatchRepository.chunk { bookMatches ->
-            val toSearch = bookMatches.filter { !existing.containsKey(it.url) }
-            if (toSearch.isEmpty()) {
-                log.info("chunk ${index++} no unprocessed matches found")
-                return@chunk
-            }
-
-            val books = bookRepository.findAllAssociatedByDnbId(bookMatches.map { it.book })
-            val blogArticles = blogArticleRepository.findAllAssociateByUrl(bookMatches.map { it.url })
-            for (blogArticle in blogArticles) {
-                blogArticle.value.content = ""
-            }
-
-            val toSave = mutableListOf<BookMatchMerge>()
-            for (bookMatch in bookMatches) {
-                val book = books[bookMatch.book]
-                if (book == null) {
-                    log.warn("book ${bookMatch.book} not found")
-                    continue
+        val stage = taskRunner.stage(1, VIRTUAL_MAX_CONCURRENT_CHUNKS)
+        try {
+            bookMatchRepository.chunk { bookMatches ->
+                val chunk = index++
+                val toSearch = bookMatches.filter { !existing.containsKey(it.url) }
+                if (toSearch.isEmpty()) {
+                    log.info("chunk $chunk no unprocessed matches found")
+                    return@chunk
                 }
+                stage.submit { merge(chunk, bookMatches, bookInfos) }
+            }
+        } finally {
+            stage.await()
+        }
+        log.info("stats prepare finished")
+    }
 
-                val bookInfo = if (book.isbn10?.isNotEmpty() ?: true && bookInfos.containsKey(book.isbn10)) {
-                    bookInfos[book.isbn10]
-                } else if (book.isbn13?.isNotEmpty() ?: true && bookInfos.containsKey(book.isbn13)) {
-                    bookInfos[book.isbn13]
-                } else {
-                    null
-                }
+    private fun merge(chunk: Int, bookMatches: List<BookMatch>, bookInfos: Map<String, BookInfoToSave>) {
+        val books = bookRepository.findAllAssociatedByDnbId(bookMatches.map { it.book })
+        val blogArticles = blogArticleRepository.findAllAssociateByUrl(bookMatches.map { it.url })
+        for (blogArticle in blogArticles) {
+            blogArticle.value.content = ""
+        }
 
-                val blogArticle = blogArticles[bookMatch.url]
-                if (blogArticle == null) {
-                    log.warn("blog article ${bookMatch.url} not found")
-                    continue
-                }
+        val toSave = mutableListOf<BookMatchMerge>()
+        for (bookMatch in bookMatches) {
+            val book = books[bookMatch.book]
+            if (book == null) {
+                log.warn("book ${bookMatch.book} not found")
+                continue
+            }
 
-                toSave.add(BookMatchMerge(
-                    murl = bookMatch.url,
-                    mblogUrl = bookMatch.blogUrl,
-                    mbyIsbn = bookMatch.byIsbn,
-                    mbook = book,
-                    mbookInfo = bookInfo,
-                    mblogArticle = blogArticle
-                ))
+            val bookInfo = if (book.isbn10?.isNotEmpty() ?: true && bookInfos.containsKey(book.isbn10)) {
+                bookInfos[book.isbn10]
+            } else if (book.isbn13?.isNotEmpty() ?: true && bookInfos.containsKey(book.isbn13)) {
+                bookInfos[book.isbn13]
+            } else {
+                null
             }
 
-            bookMatchMergeRepository.save(toSave)
+            val blogArticle = blogArticles[bookMatch.url]
+            if (blogArticle == null) {
+                log.warn("blog article ${bookMatch.url} not found")
+                continue
+            }
 
-            log.info("chunk ${index++} processed")
+            toSave.add(BookMatchMerge(
+                murl = bookMatch.url,
+                mblogUrl = bookMatch.blogUrl,
+                mbyIsbn = bookMatch.byIsbn,
+                mbook = book,
+                mbookInfo = bookInfo,
+                mblogArticle = blogArticle
+            ))
         }
-        log.info("stats prepare finished")
+
+        bookMatchMergeRepository.save(toSave)
+
+        log.info("chunk $chunk processed")
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+package de.aditu.bookscan.service
+
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * runs blocking tasks on platform threads or, with virtualThreads enabled on jdk 21 or newer, on virtual threads.
+ * the concurrency of a stage is limited by a semaphore instead of a pool size, so a stage can run many blocking
+ * elasticsearch or http calls at once. virtual threads are created by reflection, the build still targets java 8
+ * and falls back to platform threads on older jdks.
+ * the first failed task of a stage aborts the stage like an exception of a sequential loop.
+ */
+@Component
+class TaskRunner(@Value("\${virtualThreads:false}") virtualThreads: Boolean) {
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+
+    private val virtualThreadFactory: ThreadFactory? = if (virtualThreads) createVirtualThreadFactory() else null
+
+    val virtual get() = virtualThreadFactory != null
+
+    /**
+     * @param threads number of platform threads, ignored for virtual threads (one thread per task)
+     */
+    fun executor(threads: Int): ExecutorService =
+            if (virtualThreadFactory != null) Executors.newCachedThreadPool(virtualThreadFactory) else Executors.newFixedThreadPool(threads)
+
+    /**
+     * thread factory for executors which need their own queue, e.g. a priority queue
+     */
+    fun threadFactory(): ThreadFactory = virtualThreadFactory ?: Executors.defaultThreadFactory()
+
+    /**
+     * starts a stage of tasks which runs at most maxConcurrency tasks at once
+     * @param platformThreads concurrency without virtual threads
+     * @param maxConcurrency concurrency with virtual threads
+     */
+    fun stage(platformThreads: Int, maxConcurrency: Int): Stage {
+        val limit = if (virtual) maxConcurrency else platformThreads
+        return Stage(executor(limit), Semaphore(limit))
+    }
+
+    /**
+     * runs the task for every item and blocks until all tasks finished
+     */
+    fun <T> forEach(items: Iterable<T>, platformThreads: Int, maxConcurrency: Int, task: (item: T) -> Unit) {
+        val stage = stage(platformThreads, maxConcurrency)
+        try {
+            items.forEach { stage.submit { task(it) } }
+        } finally {
+            stage.await()
+        }
+    }
+
+    inner class Stage(private val executor: ExecutorService, private val permits: Semaphore) {
+
+        private val failure = AtomicReference<Exception>()
+
+        /**
+         * blocks while the concurrency limit is reached, so tasks can be submitted while items are streamed from a scroll
+         * @throws RuntimeException if a task of the stage failed, no further tasks are started
+         */
+        fun submit(task: () -> Unit) {
+            throwFailure()
+            permits.acquire()
+            try {
+                throwFailure()
+                executor.execute {
+                    try {
+                        if (failure.get() == null) {
+                            task()
+                        }
+                    } catch (e: Exception) {
+                        if (failure.compareAndSet(null, e)) {
+                            log.error("task failed, stage aborted", e)
+                        }
+                    } finally {
+                        permits.release()
+                    }
+                }
+            } catch (e: Exception) {
+                permits.release()
+                throw e
+            }
+        }
+
+        /**
+         * blocks until all submitted tasks finished
+         * @throws RuntimeException with the first failure of a task
+         */
+        fun await() {
+            executor.shutdown()
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS)
+            throwFailure()
+        }
+
+        private fun throwFailure() {
+            val e = failure.get() ?: return
+            throw RuntimeException("task failed: ${e.message}", e)
+        }
+    }
+
+    // Thread.ofVirtual().factory() of jdk 21
+    private fun createVirtualThreadFactory(): ThreadFactory? =
+            try {
+                val builder = Thread::class.java.getMethod("ofVirtual").invoke(null)
+                val factory = Class.forName("java.lang.Thread\$Builder").getMethod("factory").invoke(builder) as ThreadFactory
+                log.info("virtual threads enabled")
+                factory
+            } catch (e: Exception) {
+                log.warn("virtual threads are not available on java ${System.getProperty("java.version")}, platform threads are used")
+                null
+            }
+}
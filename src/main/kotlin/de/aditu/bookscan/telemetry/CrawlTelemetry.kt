@@ -0,0 +1,125 @@
+package de.aditu.bookscan.telemetry
+
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Component
+import java.io.File
+import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * meters of a crawl: fetch latency and downloaded bytes per host, parse time, saved articles and queue depths.
+ * the meters are registered in the micrometer registry (/actuator/metrics), the summary with per host latency histograms
+ * is served by the telemetry controller and written as json when the scan finished.
+ */
+@Component
+class CrawlTelemetry(@Autowired private val registry: MeterRegistry) {
+
+    companion object {
+        // upper bounds of the latency histogram buckets, the last bucket takes all slower fetches
+        private val LATENCY_BUCKETS_IN_MS = longArrayOf(50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, Long.MAX_VALUE)
+    }
+
+    private val started = System.currentTimeMillis()
+    private val hosts = ConcurrentHashMap<String, HostMeters>()
+    private val parseTimer = Timer.builder("crawler.parse").register(registry)
+    private val articlesSaved = Counter.builder("crawler.articles.saved").register(registry)
+    private val fetchErrors = Counter.builder("crawler.fetch.errors").register(registry)
+    private val pendingPages = registry.gauge("crawler.pages.pending", AtomicInteger(0))!!
+    private val activeBlogs = registry.gauge("crawler.blogs.active", AtomicInteger(0))!!
+    private val gauges = ConcurrentHashMap<String, () -> Number>()
+
+    fun fetched(url: String, durationInMs: Long, bytes: Int) {
+        val host = host(url)
+        host.timer.record(durationInMs, TimeUnit.MILLISECONDS)
+        host.bytes.increment(bytes.toDouble())
+        val bucket = LATENCY_BUCKETS_IN_MS.indexOfFirst { durationInMs <= it }
+        host.histogram.incrementAndGet(bucket)
+    }
+
+    fun fetchFailed() = fetchErrors.increment()
+
+    fun parsed(durationInNanos: Long) = parseTimer.record(durationInNanos, TimeUnit.NANOSECONDS)
+
+    fun articlesSaved(count: Int) = articlesSaved.increment(count.toDouble())
+
+    fun pageQueued() = pendingPages.incrementAndGet()
+
+    fun pageDone() = pendingPages.decrementAndGet()
+
+    fun pagesDropped(count: Int) = pendingPages.addAndGet(-count)
+
+    fun blogStarted() = activeBlogs.incrementAndGet()
+
+    fun blogFinished() = activeBlogs.decrementAndGet()
+
+    /**
+     * registers a queue depth or another value which is read when the summary is created
+     */
+    fun gauge(name: String, value: () -> Number) {
+        gauges[name] = value
+        registry.gauge(name, this, { (gauges[name]?.invoke() ?: 0).toDouble() })
+    }
+
+    fun summary(): Map<String, Any> {
+        val seconds = maxOf(1.0, (System.currentTimeMillis() - started) / 1000.0)
+        val pages = hosts.values.map { it.timer.count() }.sum()
+        val bytes = hosts.values.map { it.bytes.count() }.sum()
+        return linkedMapOf(
+                "elapsedSeconds" to seconds,
+                "pagesFetched" to pages,
+                "pagesPerSecond" to pages / seconds,
+                "fetchErrors" to fetchErrors.count().toLong(),
+                "bytesDownloaded" to bytes.toLong(),
+                "articlesSaved" to articlesSaved.count().toLong(),
+                "articlesPerSecond" to articlesSaved.count() / seconds,
+                "parseCount" to parseTimer.count(),
+                "parseMeanMs" to parseTimer.mean(TimeUnit.MILLISECONDS),
+                "parseMaxMs" to parseTimer.max(TimeUnit.MILLISECONDS),
+                "pendingPages" to pendingPages.get(),
+                "activeBlogs" to activeBlogs.get(),
+                "queues" to gauges.mapValues { it.value() },
+                "hosts" to hosts.entries
+                        .sortedByDescending { it.value.timer.mean(TimeUnit.MILLISECONDS) }
+                        .associate { it.key to hostSummary(it.value) })
+    }
+
+    /**
+     * writes the summary as json
+     */
+    fun dump(file: File) {
+        file.absoluteFile.parentFile?.mkdirs()
+        jacksonObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, summary())
+    }
+
+    private fun hostSummary(meters: HostMeters): Map<String, Any> {
+        val histogram = linkedMapOf<String, Long>()
+        LATENCY_BUCKETS_IN_MS.forEachIndexed { index, bound ->
+            histogram[if (bound == Long.MAX_VALUE) "+Inf" else "le$bound"] = meters.histogram.get(index)
+        }
+        return linkedMapOf(
+                "pages" to meters.timer.count(),
+                "bytes" to meters.bytes.count().toLong(),
+                "meanMs" to meters.timer.mean(TimeUnit.MILLISECONDS),
+                "maxMs" to meters.timer.max(TimeUnit.MILLISECONDS),
+                "latencyHistogramMs" to histogram)
+    }
+
+    private fun host(url: String): HostMeters {
+        val host = try { URI(url).host?.toLowerCase() ?: "unknown" } catch (e: Exception) { "unknown" }
+        return hosts.computeIfAbsent(host, {
+            HostMeters(
+                    Timer.builder("crawler.fetch").tag("host", it).register(registry),
+                    Counter.builder("crawler.fetch.bytes").tag("host", it).register(registry),
+                    AtomicLongArray(LATENCY_BUCKETS_IN_MS.size))
+        })
+    }
+
+    private class HostMeters(val timer: Timer, val bytes: Counter, val histogram: AtomicLongArray)
+}
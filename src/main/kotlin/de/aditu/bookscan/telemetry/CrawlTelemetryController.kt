@@ -0,0 +1,15 @@
+package de.aditu.bookscan.telemetry
+
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.web.bind.annotation.GetMapping
+import org.springframework.web.bind.annotation.RestController
+
+/**
+ * serves the telemetry of the running crawl
+ */
+@RestController
+class CrawlTelemetryController(@Autowired private val telemetry: CrawlTelemetry) {
+
+    @GetMapping("/telemetry")
+    fun telemetry() = telemetry.summary()
+}
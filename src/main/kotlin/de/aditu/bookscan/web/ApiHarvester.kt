@@ -0,0 +1,159 @@
+package de.aditu.bookscan.web
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import de.aditu.bookscan.model.UrlEntry
+import org.jsoup.Jsoup
+import org.jsoup.safety.Whitelist
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Service
+import java.time.LocalDateTime
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+import java.util.*
+
+/**
+ * harvests all posts of wordpress and blogger blogs by their json apis (wp-json posts, blogger json feed)
+ * in batches of 20 posts instead of crawling and parsing every html page. batches contain the full post content,
+ * so they are kept small to stay below the maximum body size of the page loader.
+ * if any batch fails the blog is not harvested and falls back to crawling.
+ */
+@Service
+class ApiHarvester(@Autowired private val pageLoader: PageLoader) {
+
+    companion object {
+        private val PAGE_SIZE = 20
+        private val MAX_PAGES = 2500
+    }
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+    private val objectMapper = jacksonObjectMapper()
+
+    /**
+     * @param urlEntry the blog
+     * @param callback will be executed for every post
+     * @return false if no api answered and the blog has to be crawled
+     */
+    fun harvest(urlEntry: UrlEntry, callback: (post: Post) -> Unit): Boolean {
+        val baseUrl = urlEntry.getFetchUrl().trimEnd('/')
+        val harvesters = if (isBlogger(urlEntry)) listOf(this::blogger, this::wordpress) else listOf(this::wordpress)
+        for (harvester in harvesters) {
+            val count = harvester(baseUrl, urlEntry, callback)
+            if (count != null) {
+                log.info("${urlEntry.url} $count posts harvested")
+                return true
+            }
+        }
+        return false
+    }
+
+    private fun isBlogger(urlEntry: UrlEntry) =
+            urlEntry.getFetchUrl().contains("blogspot") || urlEntry.feed?.contains("/feeds/posts/") == true
+
+    // wp-json posts, paged by offset until a page has less posts than requested. an offset after the last post
+    // returns an empty list, a page number after the last page would be answered with an error
+    private fun wordpress(baseUrl: String, urlEntry: UrlEntry, callback: (post: Post) -> Unit): Int? {
+        var count = 0
+        for (page in 1..MAX_PAGES) {
+            val posts = load("$baseUrl/wp-json/wp/v2/posts?per_page=$PAGE_SIZE&offset=${(page - 1) * PAGE_SIZE}&_fields=link,date_gmt,title,content")
+            if (posts == null || !posts.isArray) {
+                return failed(urlEntry, page, count)
+            }
+            if (page == 1 && posts.size() > 0 && !posts[0].has("content")) {
+                return null
+            }
+            posts.mapNotNull { wordpressPost(it) }
+                    .filter { accept(it, urlEntry) }
+                    .forEach { callback(it); count++ }
+            if (posts.size() < PAGE_SIZE) {
+                break
+            }
+        }
+        return count
+    }
+
+    private fun wordpressPost(node: JsonNode): Post? {
+        val url = node.path("link").asText(null) ?: return null
+        return Post(
+                url = url,
+                title = text(node.path("title").path("rendered").asText("")),
+                date = parseDate(node.path("date_gmt").asText(null)),
+                content = text(node.path("content").path("rendered").asText("")))
+    }
+
+    // blogger json feed with start-index and max-results. feeds which only contain summaries are not used
+    private fun blogger(baseUrl: String, urlEntry: UrlEntry, callback: (post: Post) -> Unit): Int? {
+        val feed = urlEntry.feed
+        val feedUrl = if (feed != null && feed.contains("/feeds/posts/")) feed.substringBefore("?") else "$baseUrl/feeds/posts/default"
+        var count = 0
+        for (page in 0 until MAX_PAGES) {
+            val feedNode = load("$feedUrl?alt=json&max-results=$PAGE_SIZE&start-index=${page * PAGE_SIZE + 1}")?.path("feed")
+            if (feedNode == null || feedNode.isMissingNode) {
+                return failed(urlEntry, page, count)
+            }
+            val entries = feedNode.path("entry")
+            if (page == 0 && entries.size() > 0 && !entries[0].has("content")) {
+                return null
+            }
+            entries.mapNotNull { bloggerPost(it) }
+                    .filter { accept(it, urlEntry) }
+                    .forEach { callback(it); count++ }
+            if (entries.size() < PAGE_SIZE) {
+                break
+            }
+        }
+        return count
+    }
+
+    private fun bloggerPost(node: JsonNode): Post? {
+        val url = node.path("link")
+                .firstOrNull { it.path("rel").asText() == "alternate" }
+                ?.path("href")?.asText(null) ?: return null
+        return Post(
+                url = url,
+                title = text(node.path("title").path("\$t").asText("")),
+                date = parseDate(node.path("published").path("\$t").asText(null)),
+                content = text(node.path("content").path("\$t").asText("")))
+    }
+
+    // a failed page after the first one would lose the remaining posts, the blog is crawled instead
+    private fun failed(urlEntry: UrlEntry, page: Int, count: Int): Int? {
+        if (count > 0) {
+            log.warn("${urlEntry.url} api page $page failed after $count posts, blog will be crawled")
+        }
+        return null
+    }
+
+    private fun accept(post: Post, urlEntry: UrlEntry) =
+            post.title.isNotEmpty() && urlEntry.ignoreUrl?.none { post.url.contains(it) } ?: true
+
+    private fun load(url: String): JsonNode? =
+            try {
+                val content = pageLoader.load(url).block()
+                if (content == null) null else objectMapper.readTree(content)
+            } catch (e: Exception) {
+                log.debug("$url not available: ${e.message}")
+                null
+            }
+
+    // same cleanup as the html parser
+    private fun text(html: String) = Jsoup.clean(html, Whitelist.none()).replace("&nbsp;", " ").trim()
+
+    private fun parseDate(value: String?): Date? {
+        if (value == null) {
+            return null
+        }
+        return try {
+            Date.from(OffsetDateTime.parse(value).toInstant())
+        } catch (e: Exception) {
+            try {
+                Date.from(LocalDateTime.parse(value).toInstant(ZoneOffset.UTC))
+            } catch (e: Exception) {
+                null
+            }
+        }
+    }
+
+    data class Post(val url: String, val title: String, val date: Date?, val content: String)
+}
@@ -0,0 +1,133 @@
+package de.aditu.bookscan.web
+
+import de.aditu.bookscan.model.UrlEntry
+import org.jsoup.Jsoup
+import org.jsoup.nodes.Document
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import java.net.URI
+import java.time.YearMonth
+
+/**
+ * walks the date archives (/yyyy/mm/) of a blog month by month or, without date archives, the paginated start page
+ * (wordpress /page/n/, blogger updated-max) page by page. only the article permalinks of these pages are collected,
+ * so every article is fetched once and the order of a run is always the same.
+ * the month range is taken from the archive links and archive dropdowns of the start page. the result is only complete
+ * if the month before the oldest linked month has no posts or the paginated start page ended without a next page,
+ * otherwise archive widgets which show only the recent months would hide older articles.
+ */
+@Service
+class ArchiveTraversal(@Autowired private val pageLoader: PageLoader,
+                       @Autowired private val webSiteParser: WebSiteParser,
+                       @Value("\${crawler.archiveTraversal:true}") private val enabled: Boolean) {
+
+    companion object {
+        private val MAX_PAGES = 2000
+        private val MAX_PAGES_PER_MONTH = 50
+        private val MAX_MONTHS = 360L
+        private val MONTH_ARCHIVE = Regex("^/(\\d{4})/(\\d{2})/?$")
+        private val NEXT_PAGE_SELECTORS = listOf("link[rel=next]", "a[rel=next]", "a.blog-pager-older-link", "a.next",
+                ".nav-previous a", ".nav-links a.next", "a.older-posts")
+    }
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+
+    /**
+     * @param urlEntry the blog
+     * @return all article permalinks, null if the blog has neither date archives nor a paginated start page
+     */
+    fun traverse(urlEntry: UrlEntry): Result? {
+        if (!enabled) {
+            return null
+        }
+        val baseUrl = urlEntry.getFetchUrl().trimEnd('/')
+        val home = load(baseUrl) ?: return null
+        val walk = Walk(urlEntry, baseUrl)
+
+        val linked = linkedMonths(home, baseUrl)
+        if (linked.isNotEmpty()) {
+            val newest = linked.max()!!
+            val oldest = maxOf(linked.min()!!, newest.minusMonths(MAX_MONTHS))
+            generateSequence(newest, { it.minusMonths(1) })
+                    .takeWhile { it >= oldest }
+                    .forEach { walk.pages(monthUrl(baseUrl, it), null, MAX_PAGES_PER_MONTH) }
+            val before = walk.permalinks.size
+            walk.pages(monthUrl(baseUrl, oldest.minusMonths(1)), null, 1)
+            val complete = oldest == linked.min() && walk.permalinks.size == before
+            log.info("${urlEntry.url} ${walk.permalinks.size} articles in month archives since $oldest, ${walk.visited.size} pages, complete: $complete")
+            return Result(walk.permalinks.toList(), complete)
+        }
+
+        val ended = walk.pages(baseUrl, home, MAX_PAGES)
+        if (walk.visited.size < 2) {
+            return null
+        }
+        log.info("${urlEntry.url} ${walk.permalinks.size} articles on ${walk.visited.size} pages, complete: $ended")
+        return Result(walk.permalinks.toList(), ended)
+    }
+
+    // month archives of archive widgets (links) and archive dropdowns (options)
+    private fun linkedMonths(home: Document, baseUrl: String): List<YearMonth> =
+            (home.select("a[href]").map { it.absUrl("href") } + home.select("option[value]").map { it.absUrl("value") })
+                    .filter { it.isNotEmpty() && isSameHost(it, baseUrl) }
+                    .mapNotNull { MONTH_ARCHIVE.find(path(it))?.groupValues }
+                    .mapNotNull { try { YearMonth.of(it[1].toInt(), it[2].toInt()) } catch (e: Exception) { null } }
+
+    private fun monthUrl(baseUrl: String, month: YearMonth) = "$baseUrl/${month.year}/${"%02d".format(month.monthValue)}/"
+
+    private fun load(url: String): Document? =
+            try {
+                val content = pageLoader.load(url, htmlOnly = true).block()
+                if (content == null) null else Jsoup.parse(content, url)
+            } catch (e: Exception) {
+                log.debug("$url not available: ${e.message}")
+                null
+            }
+
+    private fun path(url: String) = try { URI(url).path ?: "" } catch (e: Exception) { "" }
+
+    private fun isSameHost(url: String, baseUrl: String) =
+            UrlCanonicalizer.key(url).substringBefore('/') == UrlCanonicalizer.key(baseUrl).substringBefore('/')
+
+    private inner class Walk(private val urlEntry: UrlEntry, private val baseUrl: String) {
+
+        val permalinks = LinkedHashSet<String>()
+        val visited = mutableSetOf<String>()
+        private val linkFilter = LinkFilter(baseUrl, urlEntry.ignoreUrl ?: listOf())
+
+        /**
+         * follows the next page links until a page has no new permalinks
+         * @return true if the last page had no next page link
+         */
+        fun pages(url: String, first: Document?, maxPages: Int): Boolean {
+            var pageUrl = url
+            var doc = first ?: load(url)
+            var pages = 0
+            while (doc != null && pages++ < maxPages && visited.add(UrlCanonicalizer.key(pageUrl))) {
+                val found = webSiteParser.permalinks(doc, urlEntry)
+                        .map { UrlCanonicalizer.canonicalize(it) }
+                        .filter { linkFilter.accept(it) }
+                if (!permalinks.addAll(found)) {
+                    return false
+                }
+                pageUrl = nextPage(doc) ?: return true
+                doc = load(pageUrl)
+            }
+            return false
+        }
+
+        private fun nextPage(doc: Document): String? =
+                NEXT_PAGE_SELECTORS.asSequence()
+                        .flatMap { doc.select(it).asSequence() }
+                        .map { it.absUrl("href") }
+                        .firstOrNull { it.isNotEmpty() && isSameHost(it, baseUrl) && !visited.contains(UrlCanonicalizer.key(it)) }
+    }
+
+    /**
+     * @param urls article permalinks in archive order
+     * @param complete true if the archive was walked to its end, otherwise links have to be followed
+     */
+    data class Result(val urls: List<String>, val complete: Boolean)
+}
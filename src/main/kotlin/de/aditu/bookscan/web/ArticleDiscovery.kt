@@ -0,0 +1,120 @@
+package de.aditu.bookscan.web
+
+import de.aditu.bookscan.model.UrlEntry
+import org.jsoup.Jsoup
+import org.jsoup.nodes.Document
+import org.jsoup.parser.Parser
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Service
+
+/**
+ * discovers the article urls of a blog by its blogger feed, sitemap, date archives or rss/atom feed before falling back to link crawling.
+ * feeds and sitemaps are loaded by the page loader like all pages (host pacing, retries, body size limit, archive)
+ */
+@Service
+class ArticleDiscovery(@Autowired private val pageLoader: PageLoader,
+                       @Autowired private val archiveTraversal: ArchiveTraversal) {
+
+    companion object {
+        private val BLOGGER_MAX_RESULTS = 150
+        private val BLOGGER_MAX_PAGES = 100
+        private val SITEMAP_MAX_DEPTH = 2
+        private val SITEMAPS = listOf("/wp-sitemap.xml", "/sitemap.xml")
+        private val SITEMAP_IGNORE = listOf("category", "tag", "author", "taxonomies", "users", "page-sitemap", "-pages-")
+    }
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+
+    /**
+     * @param urlEntry the blog
+     * @param traverseArchives walk the date archives, this costs a fetch per archive page
+     * @return all found article urls. complete is false when link crawling is still required to find all articles
+     */
+    fun discover(urlEntry: UrlEntry, traverseArchives: Boolean = true): DiscoveryResult {
+        val fetchUrl = urlEntry.getFetchUrl().trimEnd('/')
+
+        if (urlEntry.feed_ignore != true && isBlogger(urlEntry)) {
+            val urls = bloggerFeed(bloggerFeedUrl(urlEntry))
+            if (urls.isNotEmpty()) {
+                return DiscoveryResult(urls, true)
+            }
+        }
+
+        for (sitemap in SITEMAPS) {
+            val urls = sitemap(fetchUrl + sitemap, 0)
+            if (urls.isNotEmpty()) {
+                return DiscoveryResult(urls, true)
+            }
+        }
+
+        val archived = if (traverseArchives) archiveTraversal.traverse(urlEntry) else null
+        if (archived != null && archived.urls.isNotEmpty()) {
+            return DiscoveryResult(archived.urls, archived.complete)
+        }
+
+        if (urlEntry.feed_ignore != true && urlEntry.feed != null) {
+            return DiscoveryResult(feed(urlEntry.feed), false)
+        }
+
+        return DiscoveryResult(listOf(), false)
+    }
+
+    private fun isBlogger(urlEntry: UrlEntry) =
+            urlEntry.getFetchUrl().contains("blogspot") || urlEntry.feed?.contains("/feeds/posts/") == true
+
+    private fun bloggerFeedUrl(urlEntry: UrlEntry): String {
+        val feed = urlEntry.feed
+        return if (feed != null && feed.contains("/feeds/posts/")) feed.substringBefore("?") else urlEntry.getFetchUrl().trimEnd('/') + "/feeds/posts/default"
+    }
+
+    // blogger feeds are paginated with start-index and max-results
+    private fun bloggerFeed(feedUrl: String): List<String> {
+        val result = mutableListOf<String>()
+        for (page in 0 until BLOGGER_MAX_PAGES) {
+            val doc = load("$feedUrl?start-index=${page * BLOGGER_MAX_RESULTS + 1}&max-results=$BLOGGER_MAX_RESULTS") ?: break
+            val urls = atomLinks(doc)
+            result.addAll(urls)
+            if (doc.select("entry").size < BLOGGER_MAX_RESULTS) {
+                break
+            }
+        }
+        return result.distinct()
+    }
+
+    // sitemap index files are followed recursively
+    private fun sitemap(sitemapUrl: String, depth: Int): List<String> {
+        val doc = load(sitemapUrl) ?: return listOf()
+        val urls = doc.select("url > loc").map { it.text().trim() }
+        val sitemaps = doc.select("sitemap > loc")
+                .map { it.text().trim() }
+                .filter { sitemap -> SITEMAP_IGNORE.none { sitemap.contains(it) } }
+
+        if (depth >= SITEMAP_MAX_DEPTH) {
+            return urls
+        }
+        return (urls + sitemaps.flatMap { sitemap(it, depth + 1) }).distinct()
+    }
+
+    // rss or atom feed
+    private fun feed(feedUrl: String): List<String> {
+        val doc = load(feedUrl) ?: return listOf()
+        val rss = doc.select("item > link").map { it.text().trim() }
+        return (rss + atomLinks(doc)).filter { it.isNotEmpty() }.distinct()
+    }
+
+    private fun atomLinks(doc: Document) =
+            doc.select("entry > link[rel=alternate]").map { it.attr("href").trim() }
+
+    private fun load(url: String): Document? {
+        return try {
+            val content = pageLoader.load(url).block() ?: return null
+            Jsoup.parse(content, url, Parser.xmlParser())
+        } catch (e: Exception) {
+            log.debug("$url not available: ${e.message}")
+            null
+        }
+    }
+
+    data class DiscoveryResult(val urls: List<String>, val complete: Boolean)
+}
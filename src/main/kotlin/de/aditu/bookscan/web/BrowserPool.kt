@@ -0,0 +1,138 @@
+package de.aditu.bookscan.web
+
+import org.openqa.selenium.By
+import org.openqa.selenium.chrome.ChromeDriver
+import org.openqa.selenium.chrome.ChromeOptions
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.Semaphore
+import javax.annotation.PreDestroy
+
+/**
+ * pool of headless chrome sessions for blogs which can only be fetched with a simulated browser.
+ * sessions are created lazily, leased for one page and recycled after a given number of pages.
+ */
+@Component
+class BrowserPool(@Autowired private val archive: PageArchive,
+                  @Value("\${webdriver.chrome.driver}") webdriverPath: String,
+                  @Value("\${crawler.browserPoolSize:4}") val size: Int,
+                  @Value("\${crawler.browserRecycleAfter:200}") private val recycleAfter: Int) {
+
+    companion object {
+        private val POLL_INTERVAL_IN_MS = 100L
+        private val STABLE_POLLS = 3
+        private val MAX_WAIT_IN_MS = 10000L
+        private val READY_STATE_SCRIPT = "return document.readyState + ':' + document.getElementsByTagName('*').length + ':' + " +
+                "(window.performance && performance.getEntriesByType ? performance.getEntriesByType('resource').length : 0)"
+    }
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+
+    private val available = Semaphore(size)
+    private val idle = LinkedBlockingQueue<Session>()
+    private val sessions = mutableListOf<Session>()
+
+    init {
+        System.setProperty("webdriver.chrome.driver", webdriverPath)
+    }
+
+    /**
+     * loads the page in a leased browser session and waits until the page is ready
+     * @param url the page
+     * @return html of the rendered page, in replay mode the archived page
+     */
+    fun load(url: String): String? {
+        if (archive.replaying) {
+            return archive.read(url)
+        }
+        val html = render(url)
+        if (archive.recording && html != null && html.isNotEmpty()) {
+            archive.record(url, html)
+        }
+        return html
+    }
+
+    private fun render(url: String): String? {
+        val session = lease()
+        var broken = true
+        try {
+            session.driver.get(url)
+            session.pages++
+            broken = false
+            return try {
+                waitUntilReady(session.driver)
+                session.driver.findElement(By.tagName("html")).getAttribute("innerHTML")
+            } catch (exception: Exception) {
+                ""
+            }
+        } finally {
+            release(session, broken)
+        }
+    }
+
+    private fun lease(): Session {
+        available.acquire()
+        return try {
+            idle.poll() ?: createSession()
+        } catch (exception: Exception) {
+            available.release()
+            throw exception
+        }
+    }
+
+    private fun release(session: Session, broken: Boolean) {
+        if (broken || session.pages >= recycleAfter) {
+            quit(session)
+        } else {
+            idle.offer(session)
+        }
+        available.release()
+    }
+
+    // the page is ready when the document is complete and neither the dom nor the loaded resources changed for some polls
+    private fun waitUntilReady(driver: ChromeDriver) {
+        val start = System.currentTimeMillis()
+        var last: Any? = null
+        var stable = 0
+        while (stable < STABLE_POLLS && System.currentTimeMillis() - start < MAX_WAIT_IN_MS) {
+            val state = driver.executeScript(READY_STATE_SCRIPT)
+            stable = if (state == last && state.toString().startsWith("complete")) stable + 1 else 0
+            last = state
+            Thread.sleep(POLL_INTERVAL_IN_MS)
+        }
+    }
+
+    private fun createSession(): Session {
+        val options = ChromeOptions()
+        options.addArguments("headless")
+        options.addArguments("window-size=1200x600")
+        val session = Session(ChromeDriver(options))
+        synchronized(sessions) {
+            sessions.add(session)
+        }
+        return session
+    }
+
+    private fun quit(session: Session) {
+        synchronized(sessions) {
+            sessions.remove(session)
+        }
+        try {
+            session.driver.quit()
+        } catch (exception: Exception) {
+            log.warn("error closing browser session", exception)
+        }
+    }
+
+    @PreDestroy
+    fun close() {
+        synchronized(sessions) {
+            sessions.toList()
+        }.forEach { quit(it) }
+    }
+
+    private class Session(val driver: ChromeDriver, var pages: Int = 0)
+}
@@ -0,0 +1,59 @@
+package de.aditu.bookscan.web
+
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.ByteBufHolder
+import io.netty.channel.Channel
+import io.netty.channel.ChannelHandlerContext
+import io.netty.channel.ChannelInboundHandlerAdapter
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * metrics of the crawler http connection pool: opened and closed connections, requests and bytes on the wire.
+ * requests per opened connection show how well connections are reused
+ */
+class ConnectionMetrics {
+
+    private val opened = AtomicLong()
+    private val closed = AtomicLong()
+    private val requests = AtomicLong()
+    private val bytesReceived = AtomicLong()
+
+    /**
+     * counts the connection and the received bytes until the connection is closed
+     */
+    fun register(channel: Channel) {
+        opened.incrementAndGet()
+        channel.closeFuture().addListener { closed.incrementAndGet() }
+        channel.pipeline().addFirst(ByteCounter())
+    }
+
+    fun requestSent() {
+        requests.incrementAndGet()
+    }
+
+    fun openConnections() = opened.get() - closed.get()
+
+    fun summary(): Map<String, Any> {
+        val requests = requests.get()
+        val opened = opened.get()
+        return mapOf(
+                "requests" to requests,
+                "connectionsOpened" to opened,
+                "connectionsOpen" to openConnections(),
+                "requestsPerConnection" to if (opened > 0) requests.toDouble() / opened else 0.0,
+                "bytesReceived" to bytesReceived.get())
+    }
+
+    override fun toString() = summary().entries.joinToString(", ") { "${it.key}=${it.value}" }
+
+    // first handler of the pipeline, sees the compressed and encrypted bytes
+    private inner class ByteCounter : ChannelInboundHandlerAdapter() {
+        override fun channelRead(ctx: ChannelHandlerContext, msg: Any) {
+            when (msg) {
+                is ByteBuf -> bytesReceived.addAndGet(msg.readableBytes().toLong())
+                is ByteBufHolder -> bytesReceived.addAndGet(msg.content().readableBytes().toLong())
+            }
+            ctx.fireChannelRead(msg)
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package de.aditu.bookscan.web
+
+import com.google.common.hash.Hashing
+import java.io.BufferedWriter
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+
+/**
+ * durable crawl frontier of one blog: an append only log of discovered and completed urls.
+ * an interrupted scan restores the pending and completed urls from the log and continues where it stopped.
+ * the log is compacted when it contains too many obsolete lines and deleted when the scan finished.
+ * pages which produced an article are only logged as completed after the article was saved, so a crash never skips
+ * articles which were still queued for saving.
+ */
+class CrawlFrontier(private val file: File) {
+
+    companion object {
+        private val DISCOVERED = "D "
+        private val COMPLETED = "C "
+        private val COMPACT_MIN_OBSOLETE_LINES = 10_000
+
+        /**
+         * opens the frontier of the given blog and restores its state if a log exists.
+         * the log is named by a hash of the canonical blog url, so different blogs never share a log
+         */
+        fun open(directory: String, blogUrl: String): CrawlFrontier {
+            val dir = File(directory)
+            dir.mkdirs()
+            val name = Hashing.murmur3_128().hashString(UrlCanonicalizer.canonicalize(blogUrl), StandardCharsets.UTF_8).toString()
+            return CrawlFrontier(File(dir, "$name.log"))
+        }
+    }
+
+    private val pending = LinkedHashSet<String>()
+    private val completed = HashSet<String>()
+    private val awaitingSave = HashSet<String>()
+    private var lines = 0
+    private var writer: BufferedWriter
+
+    init {
+        if (file.exists()) {
+            file.forEachLine(StandardCharsets.UTF_8) { line ->
+                if (line.length <= 2) {
+                    return@forEachLine
+                }
+                val url = line.substring(2)
+                when {
+                    line.startsWith(COMPLETED) -> {
+                        pending.remove(url)
+                        completed.add(url)
+                    }
+                    line.startsWith(DISCOVERED) && !completed.contains(url) -> pending.add(url)
+                }
+                lines++
+            }
+        }
+        writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+    }
+
+    @Synchronized
+    fun pending(): List<String> = pending.toList()
+
+    @Synchronized
+    fun completed(): Set<String> = completed.toSet()
+
+    @Synchronized
+    fun discovered(url: String) {
+        if (!completed.contains(url) && pending.add(url)) {
+            append(DISCOVERED + url)
+        }
+    }
+
+    /**
+     * the page was processed. pages waiting for their article to be saved stay pending until saved is called
+     */
+    @Synchronized
+    fun completed(url: String) {
+        if (!awaitingSave.contains(url)) {
+            markCompleted(url)
+        }
+    }
+
+    /**
+     * the page produced an article which is not saved yet
+     */
+    @Synchronized
+    fun awaitSave(url: String) {
+        awaitingSave.add(url)
+    }
+
+    /**
+     * the article of the page was saved or dropped
+     */
+    @Synchronized
+    fun saved(url: String) {
+        awaitingSave.remove(url)
+        markCompleted(url)
+    }
+
+    /**
+     * the scan finished, the log is not needed anymore
+     */
+    @Synchronized
+    fun finish() {
+        writer.close()
+        file.delete()
+    }
+
+    private fun markCompleted(url: String) {
+        pending.remove(url)
+        if (completed.add(url)) {
+            append(COMPLETED + url)
+        }
+    }
+
+    private fun append(line: String) {
+        writer.write(line)
+        writer.newLine()
+        writer.flush()
+        lines++
+        if (lines - pending.size - completed.size > COMPACT_MIN_OBSOLETE_LINES) {
+            compact()
+        }
+    }
+
+    // rewrites the log with one line per url
+    private fun compact() {
+        writer.close()
+        val compacted = File(file.path + ".tmp")
+        Files.newBufferedWriter(compacted.toPath(), StandardCharsets.UTF_8).use { out ->
+            completed.forEach { out.write(COMPLETED + it); out.newLine() }
+            pending.forEach { out.write(DISCOVERED + it); out.newLine() }
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        lines = completed.size + pending.size
+        writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+    }
+}
@@ -0,0 +1,119 @@
+package de.aditu.bookscan.web
+
+import io.netty.resolver.AddressResolver
+import io.netty.resolver.AddressResolverGroup
+import io.netty.resolver.InetNameResolver
+import io.netty.util.concurrent.EventExecutor
+import io.netty.util.concurrent.Promise
+import org.slf4j.LoggerFactory
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.URI
+import java.net.UnknownHostException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+/**
+ * dns cache shared by all connections of the crawler. positive and negative answers are cached with their own ttl,
+ * so hosts which don't resolve anymore fail at once instead of waiting for the connect timeout.
+ * lookups run on own threads and never block the event loop, all blog hosts can be resolved before the crawl starts.
+ */
+class DnsCache(private val positiveTtlInMs: Long = TimeUnit.HOURS.toMillis(1),
+               private val negativeTtlInMs: Long = TimeUnit.MINUTES.toMillis(10),
+               threads: Int = 32) {
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+
+    private val entries = ConcurrentHashMap<String, Entry>()
+    private val lookups = ConcurrentHashMap<String, CompletableFuture<Entry>>()
+    private val executor = Executors.newFixedThreadPool(threads, ThreadFactory { Thread(it, "dns").apply { isDaemon = true } })
+
+    /**
+     * resolves all hosts of the given urls concurrently and blocks until all lookups finished
+     */
+    fun preResolve(urls: Collection<String>) {
+        val hosts = urls.mapNotNull { try { URI(it).host?.toLowerCase() } catch (e: Exception) { null } }.distinct()
+        val start = System.currentTimeMillis()
+        val results = hosts.map { resolveAsync(it) }.map { try { it.join() } catch (e: Exception) { null } }
+        log.info("${hosts.size} hosts resolved in ${System.currentTimeMillis() - start}ms, ${results.count { it == null || it.addresses.isEmpty() }} unknown")
+    }
+
+    /**
+     * @return the cached addresses of the host, looked up if the host is not cached or expired
+     */
+    fun resolveAsync(host: String): CompletableFuture<Entry> {
+        val key = host.toLowerCase()
+        val cached = entries[key]
+        if (cached != null && cached.expires > System.currentTimeMillis()) {
+            return CompletableFuture.completedFuture(cached)
+        }
+        // concurrent lookups of the same host share one request. the cleanup is attached after the future is
+        // published, a callback inside a map compute could run synchronously and modify the map recursively
+        val future = CompletableFuture<Entry>()
+        val running = lookups.putIfAbsent(key, future)
+        if (running != null) {
+            return running
+        }
+        future.whenComplete { entry, _ ->
+            if (entry != null) {
+                entries[key] = entry
+            }
+            lookups.remove(key, future)
+        }
+        try {
+            executor.execute {
+                try {
+                    future.complete(lookup(key))
+                } catch (e: Exception) {
+                    future.completeExceptionally(e)
+                }
+            }
+        } catch (e: Exception) {
+            future.completeExceptionally(e)
+        }
+        return future
+    }
+
+    /**
+     * resolver group for the netty client
+     */
+    fun resolverGroup(): AddressResolverGroup<InetSocketAddress> = object : AddressResolverGroup<InetSocketAddress>() {
+        override fun newResolver(executor: EventExecutor): AddressResolver<InetSocketAddress> =
+                CachingNameResolver(executor).asAddressResolver()
+    }
+
+    private fun lookup(host: String): Entry =
+            try {
+                Entry(InetAddress.getAllByName(host).toList(), System.currentTimeMillis() + positiveTtlInMs)
+            } catch (e: UnknownHostException) {
+                Entry(listOf(), System.currentTimeMillis() + negativeTtlInMs)
+            }
+
+    private inner class CachingNameResolver(executor: EventExecutor) : InetNameResolver(executor) {
+
+        override fun doResolve(inetHost: String, promise: Promise<InetAddress>) {
+            resolveAsync(inetHost).whenComplete { entry, error ->
+                when {
+                    error != null -> promise.tryFailure(error)
+                    entry.addresses.isEmpty() -> promise.tryFailure(UnknownHostException(inetHost))
+                    else -> promise.trySuccess(entry.addresses.first())
+                }
+            }
+        }
+
+        override fun doResolveAll(inetHost: String, promise: Promise<List<InetAddress>>) {
+            resolveAsync(inetHost).whenComplete { entry, error ->
+                when {
+                    error != null -> promise.tryFailure(error)
+                    entry.addresses.isEmpty() -> promise.tryFailure(UnknownHostException(inetHost))
+                    else -> promise.trySuccess(entry.addresses)
+                }
+            }
+        }
+    }
+
+    class Entry(val addresses: List<InetAddress>, val expires: Long)
+}
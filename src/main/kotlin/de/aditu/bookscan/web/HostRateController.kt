@@ -0,0 +1,142 @@
+package de.aditu.bookscan.web
+
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.http.HttpStatus
+import org.springframework.stereotype.Component
+import java.net.URI
+import java.time.ZonedDateTime
+import java.time.format.DateTimeFormatter
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * adaptive request rate per host (aimd): the rate increases additively with every fast successful response and
+ * is cut in half on 429, 503, connection errors or responses much slower than usual.
+ * a Retry-After header blocks the host until the given time. with delayBetweenRequests disabled requests are not paced,
+ * but blocked hosts and retry backoff are still honored.
+ */
+@Component
+class HostRateController(@Value("\${delayBetweenRequests:true}") private val delayBetweenRequests: Boolean) {
+
+    companion object {
+        private val INITIAL_RATE = 2.0
+        private val MIN_RATE = 0.2
+        private val MAX_RATE = 20.0
+        private val RATE_INCREASE = 0.1
+        private val RATE_DECREASE_FACTOR = 0.5
+        private val DECREASE_COOLDOWN_IN_MS = 1000L
+        private val SLOW_LATENCY_FACTOR = 3.0
+        private val SLOW_LATENCY_MIN_IN_MS = 2000L
+        private val LATENCY_EWMA_WEIGHT = 0.2
+        private val BACKOFF_BASE_IN_MS = 1000L
+        private val MAX_BACKOFF_IN_MS = 120000L
+
+        fun hostOf(url: String): String =
+                try { URI(url).host?.toLowerCase() ?: url } catch (e: Exception) { url }
+    }
+
+    private val hosts = ConcurrentHashMap<String, HostState>()
+
+    /**
+     * reserves the next request slot of the host
+     * @return milliseconds to wait before the request may be sent
+     */
+    fun reserve(url: String): Long {
+        val state = state(url)
+        synchronized(state) {
+            val now = System.currentTimeMillis()
+            val start = maxOf(now, state.blockedUntil, if (delayBetweenRequests) state.nextRequest else now)
+            state.nextRequest = start + (1000 / state.rate).toLong()
+            return start - now
+        }
+    }
+
+    /**
+     * adapts the rate of the host to a received response
+     * @param retryAfter value of the Retry-After header
+     */
+    fun onResponse(url: String, status: HttpStatus, latencyInMs: Long, retryAfter: String? = null) {
+        val state = state(url)
+        synchronized(state) {
+            val now = System.currentTimeMillis()
+            if (status == HttpStatus.TOO_MANY_REQUESTS || status == HttpStatus.SERVICE_UNAVAILABLE) {
+                val blockedFor = parseRetryAfter(retryAfter, now)
+                if (blockedFor != null) {
+                    state.blockedUntil = maxOf(state.blockedUntil, now + minOf(blockedFor, MAX_BACKOFF_IN_MS))
+                }
+                decrease(state, now)
+                return
+            }
+            if (state.latency > 0 && latencyInMs > SLOW_LATENCY_MIN_IN_MS && latencyInMs > state.latency * SLOW_LATENCY_FACTOR) {
+                decrease(state, now)
+            } else {
+                state.rate = minOf(MAX_RATE, state.rate + RATE_INCREASE)
+            }
+            state.latency = if (state.latency == 0.0) latencyInMs.toDouble()
+                            else state.latency * (1 - LATENCY_EWMA_WEIGHT) + latencyInMs * LATENCY_EWMA_WEIGHT
+        }
+    }
+
+    /**
+     * connection errors and timeouts slow the host down
+     */
+    fun onFailure(url: String) {
+        val state = state(url)
+        synchronized(state) {
+            decrease(state, System.currentTimeMillis())
+        }
+    }
+
+    /**
+     * @param attempt the number of the retry, starting with 1
+     * @return milliseconds to wait before the retry: exponential backoff with full jitter, at least until the host is unblocked
+     */
+    fun backoff(url: String, attempt: Int): Long {
+        val max = minOf(MAX_BACKOFF_IN_MS, BACKOFF_BASE_IN_MS shl minOf(attempt - 1, 16))
+        val jitter = ThreadLocalRandom.current().nextLong(max / 2, max + 1)
+        val state = state(url)
+        val blocked = synchronized(state) { state.blockedUntil - System.currentTimeMillis() }
+        return maxOf(jitter, blocked)
+    }
+
+    /**
+     * @return true if the host sent a Retry-After which is not yet expired
+     */
+    fun isBlocked(host: String): Boolean {
+        val state = hosts[host] ?: return false
+        return synchronized(state) { state.blockedUntil > System.currentTimeMillis() }
+    }
+
+    private fun state(url: String) = hosts.computeIfAbsent(hostOf(url), { HostState() })
+
+    // the rate is decreased at most once per cooldown, otherwise parallel failures of one incident would multiply
+    private fun decrease(state: HostState, now: Long) {
+        if (now - state.lastDecrease < DECREASE_COOLDOWN_IN_MS) {
+            return
+        }
+        state.rate = maxOf(MIN_RATE, state.rate * RATE_DECREASE_FACTOR)
+        state.lastDecrease = now
+    }
+
+    // Retry-After is either delay in seconds or a http date
+    private fun parseRetryAfter(value: String?, now: Long): Long? {
+        if (value == null || value.isBlank()) {
+            return null
+        }
+        val seconds = value.trim().toLongOrNull()
+        if (seconds != null) {
+            return seconds * 1000
+        }
+        return try {
+            ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - now
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    private class HostState(var rate: Double = INITIAL_RATE,
+                            var nextRequest: Long = 0,
+                            var blockedUntil: Long = 0,
+                            var lastDecrease: Long = 0,
+                            var latency: Double = 0.0)
+}
@@ -0,0 +1,92 @@
+package de.aditu.bookscan.web
+
+import org.jsoup.parser.Parser
+
+/**
+ * extracts the href attributes of all <a> tags directly from the html without building a dom.
+ * comments and the raw text of <script> and <style> are skipped, markup inside them is no link.
+ */
+object HrefTokenizer {
+
+    private val RAW_TEXT_TAGS = listOf("script", "style")
+
+    fun hrefs(html: String): List<String> {
+        val result = mutableListOf<String>()
+        var i = 0
+        while (i < html.length) {
+            val start = html.indexOf("<", i)
+            if (start < 0) {
+                break
+            }
+            if (html.startsWith("<!--", start)) {
+                val end = html.indexOf("-->", start + 4)
+                i = if (end < 0) html.length else end + 3
+                continue
+            }
+
+            i = start + 1
+            val rawText = RAW_TEXT_TAGS.firstOrNull { isTag(html, i, it) }
+            if (rawText != null) {
+                val end = html.indexOf("</$rawText", i + rawText.length, true)
+                i = if (end < 0) html.length else end + 2 + rawText.length
+                continue
+            }
+            if (i + 1 < html.length && (html[i] == 'a' || html[i] == 'A') && html[i + 1].isWhitespace()) {
+                i = attributes(html, i + 1, result)
+            }
+        }
+        return result
+    }
+
+    // tag name at the position followed by whitespace, > or /
+    private fun isTag(html: String, from: Int, name: String): Boolean {
+        val end = from + name.length
+        return end < html.length && html.regionMatches(from, name, 0, name.length, true)
+                && (html[end].isWhitespace() || html[end] == '>' || html[end] == '/')
+    }
+
+    // reads all attributes of the tag up to the closing > and adds the href value to result
+    private fun attributes(html: String, from: Int, result: MutableList<String>): Int {
+        var i = from
+        while (i < html.length) {
+            while (i < html.length && html[i].isWhitespace()) i++
+            if (i >= html.length || html[i] == '>') {
+                return i + 1
+            }
+
+            val nameStart = i
+            while (i < html.length && !html[i].isWhitespace() && html[i] != '=' && html[i] != '>') i++
+            if (i == nameStart) {
+                i++
+                continue
+            }
+            val name = html.substring(nameStart, i)
+
+            while (i < html.length && html[i].isWhitespace()) i++
+            if (i >= html.length || html[i] != '=') {
+                continue
+            }
+            i++
+            while (i < html.length && html[i].isWhitespace()) i++
+            if (i >= html.length) {
+                break
+            }
+
+            val value = if (html[i] == '"' || html[i] == '\'') {
+                val end = html.indexOf(html[i], i + 1).let { if (it < 0) html.length else it }
+                val quoted = html.substring(i + 1, end)
+                i = end + 1
+                quoted
+            } else {
+                val valueStart = i
+                while (i < html.length && !html[i].isWhitespace() && html[i] != '>') i++
+                html.substring(valueStart, i)
+            }
+
+            if (name.equals("href", true)) {
+                result.add(Parser.unescapeEntities(value, true))
+            }
+        }
+        return i
+    }
+}
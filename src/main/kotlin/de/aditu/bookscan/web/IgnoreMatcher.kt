@@ -0,0 +1,90 @@
+package de.aditu.bookscan.web
+
+import java.util.*
+
+/**
+ * compiled ignore list. full urls (e.g. already fetched articles) are looked up by their canonical key in a hash set,
+ * all other entries are case insensitive substring rules which are matched at once by an aho-corasick automaton.
+ */
+class IgnoreMatcher(ignore: List<String>) {
+
+    private val urls = HashSet<String>()
+    private val transitions = mutableListOf(HashMap<Char, Int>())
+    private var fail = IntArray(0)
+    private var terminal = BooleanArray(0)
+
+    init {
+        val terminals = mutableSetOf<Int>()
+        for (entry in ignore) {
+            when {
+                entry.isEmpty() -> {}
+                entry.contains("://") -> urls.add(UrlCanonicalizer.key(entry))
+                else -> terminals.add(insert(entry.toLowerCase()))
+            }
+        }
+        terminal = BooleanArray(transitions.size) { terminals.contains(it) }
+        buildFailureLinks()
+    }
+
+    /**
+     * @param linkUrl absolute url
+     * @return true if the url is an ignored url or contains one of the ignored substrings
+     */
+    fun matches(linkUrl: String): Boolean {
+        if (urls.isNotEmpty()) {
+            val key = UrlCanonicalizer.key(linkUrl)
+            if (urls.contains(key) || urls.contains(key.substringBefore("?"))) {
+                return true
+            }
+        }
+        return containsPattern(linkUrl.toLowerCase())
+    }
+
+    private fun containsPattern(text: String): Boolean {
+        if (transitions.size == 1) {
+            return false
+        }
+        var state = 0
+        for (c in text) {
+            while (state != 0 && !transitions[state].containsKey(c)) {
+                state = fail[state]
+            }
+            state = transitions[state][c] ?: 0
+            if (terminal[state]) {
+                return true
+            }
+        }
+        return false
+    }
+
+    private fun insert(pattern: String): Int {
+        var state = 0
+        for (c in pattern) {
+            state = transitions[state][c] ?: run {
+                transitions.add(HashMap())
+                transitions[state][c] = transitions.size - 1
+                transitions.size - 1
+            }
+        }
+        return state
+    }
+
+    // breadth first: the failure link of a state points to the longest proper suffix which is also a prefix of a pattern
+    private fun buildFailureLinks() {
+        fail = IntArray(transitions.size)
+        val queue = ArrayDeque<Int>()
+        transitions[0].values.forEach { queue.add(it) }
+        while (queue.isNotEmpty()) {
+            val state = queue.poll()
+            for ((c, next) in transitions[state]) {
+                var f = fail[state]
+                while (f != 0 && !transitions[f].containsKey(c)) {
+                    f = fail[f]
+                }
+                fail[next] = transitions[f][c] ?: 0
+                terminal[next] = terminal[next] || terminal[fail[next]]
+                queue.add(next)
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package de.aditu.bookscan.web
+
+import org.jsoup.nodes.Document
+import java.net.MalformedURLException
+import java.net.URI
+import java.net.URL
+
+/**
+ * extracts all internal and not ignored links of a fetched page, either from the dom or directly from the html
+ */
+class LinkFilter(private val baseUrl: String,
+                 ignore: List<String> = listOf()) {
+
+    companion object {
+        private val IGNORED_EXTENSIONS = listOf("jpg", "jpeg", "png", "gif", "webp", "svg", "bmp", "ico",
+                "mp3", "mp4", "avi", "mpg", "mpeg", "pdf", "zip", "rar", "gz", "exe", "epub", "mobi", "css", "js")
+        private val IGNORED_PATHS = listOf("admin.php", "login.php", "wp-admin", "javascript:")
+    }
+
+    private val baseKey = UrlCanonicalizer.key(baseUrl).toLowerCase()
+    private val baseOrigin = URI(baseUrl).let { it.scheme + "://" + it.host }
+    private val ignoreMatcher = IgnoreMatcher(ignore)
+
+    fun links(doc: Document): List<String> =
+            doc.select("a")
+                    .map { parseUrl(it.attr("href")) }
+                    .filter { accept(it) }
+
+    fun links(html: String): List<String> =
+            HrefTokenizer.hrefs(html)
+                    .map { parseUrl(it) }
+                    .filter { accept(it) }
+
+    fun accept(linkUrl: String) = !isIgnoredUrl(linkUrl) && isInternalLink(linkUrl)
+
+    // compares canonical keys, so scheme, www and the blogspot country domain don't matter
+    private fun isInternalLink(link: String): Boolean {
+        val key = UrlCanonicalizer.key(link).toLowerCase()
+        return key.startsWith(baseKey) && (key.length == baseKey.length || baseKey.contains('/') || key[baseKey.length] == '/' || key[baseKey.length] == '?')
+    }
+
+    // handle ./ links and #hashes
+    private fun parseUrl(href: String): String {
+        var url = absUrl(href)
+        if (url.isEmpty()) {
+            url = href
+            url = if (url.startsWith("./")) url.substring(2) else url
+
+            url = when {
+                url.startsWith("/") -> baseOrigin + url
+                url == "." -> baseUrl
+                else -> baseUrl + "/" + url
+            }
+        }
+
+        url = url.replace(".blogspot.co.at", ".blogspot.de")
+        url = removeHash(url)
+        return UrlCanonicalizer.canonicalize(url)
+    }
+
+    private fun isIgnoredUrl(linkUrl: String): Boolean {
+        val linkUri = try {
+            URI(linkUrl)
+        } catch (e: Exception) {
+            return true
+        }
+
+        val path = linkUri.path ?: return true
+        val lowerPath = path.toLowerCase()
+        val query = linkUri.query
+
+        return linkUrl.trim().isEmpty()
+                || path.startsWith("//")
+                || path.startsWith("data:image")
+                || (path == "/" && query == null)
+                || IGNORED_PATHS.any { path.contains(it) }
+                || IGNORED_EXTENSIONS.contains(lowerPath.substringAfterLast('.'))
+                || (query != null && (query.contains("m=1") || query.contains("m=0")))
+                || ignoreMatcher.matches(linkUrl)
+    }
+
+    // pages are parsed without base uri, so only absolute hrefs are taken as they are
+    private fun absUrl(href: String) = try { URL(href.trim()).toExternalForm() } catch (e: MalformedURLException) { "" }
+
+    private fun removeHash(url: String) = if (url.contains("#")) url.substring(0, url.indexOf("#")) else url
+}
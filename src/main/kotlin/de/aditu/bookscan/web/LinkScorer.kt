@@ -0,0 +1,53 @@
+package de.aditu.bookscan.web
+
+import de.aditu.bookscan.model.UrlEntry
+import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * priority of the links of one blog: the url signals of the parser plus a score learned while the blog is crawled.
+ * links are grouped by their url shape (path depth, first path segment, digits), the share of article pages
+ * found for a shape raises or lowers the priority of further links with the same shape.
+ */
+class LinkScorer(private val urlEntry: UrlEntry, private val webSiteParser: WebSiteParser) {
+
+    companion object {
+        private val LEARNED_WEIGHT = 4.0
+        private val DIGITS = Regex("\\d+")
+    }
+
+    private val shapes = ConcurrentHashMap<String, ShapeStats>()
+
+    fun score(url: String): Double {
+        val stats = shapes[shape(url)]
+        val learned = if (stats == null) 0.0 else stats.articleRate() - 0.5
+        return webSiteParser.linkScore(url, urlEntry) + LEARNED_WEIGHT * learned
+    }
+
+    /**
+     * learns from a fetched page whether links of its shape lead to articles
+     */
+    fun learn(url: String, isArticle: Boolean) {
+        val stats = shapes.computeIfAbsent(shape(url), { ShapeStats() })
+        stats.pages.incrementAndGet()
+        if (isArticle) {
+            stats.articles.incrementAndGet()
+        }
+    }
+
+    // e.g. https://blog.de/2018/03/some-title.html -> 3:#:#/#/*.html
+    private fun shape(url: String): String {
+        val path = try { URI(url).path ?: "" } catch (e: Exception) { "" }
+        val segments = path.split("/").filter { it.isNotEmpty() }
+        val first = segments.firstOrNull()?.replace(DIGITS, "#") ?: ""
+        val extension = segments.lastOrNull()?.substringAfterLast('.', "") ?: ""
+        val query = if (url.contains("?")) "?" else ""
+        return "${segments.size}:$first:${segments.joinToString("/") { if (it.contains(DIGITS)) "#" else "*" }}.$extension$query"
+    }
+
+    // laplace smoothed share of article pages
+    private class ShapeStats(val pages: AtomicInteger = AtomicInteger(), val articles: AtomicInteger = AtomicInteger()) {
+        fun articleRate() = (articles.get() + 1.0) / (pages.get() + 2.0)
+    }
+}
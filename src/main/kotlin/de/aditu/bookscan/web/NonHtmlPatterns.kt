@@ -0,0 +1,54 @@
+package de.aditu.bookscan.web
+
+import org.slf4j.LoggerFactory
+import org.springframework.stereotype.Component
+import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * url patterns per host which always answered with something else than html (pdf, images, downloads, feeds, apis).
+ * a pattern is the host with the first path segment, the file extension and whether the url has a query.
+ * after three non html responses without any html page the pattern is not requested anymore.
+ */
+@Component
+class NonHtmlPatterns {
+
+    companion object {
+        private val MIN_NON_HTML = 3
+        private val DIGITS = Regex("\\d+")
+    }
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+
+    private val patterns = ConcurrentHashMap<String, PatternStats>()
+
+    fun isNonHtml(url: String): Boolean {
+        val stats = patterns[pattern(url)] ?: return false
+        return stats.html.get() == 0 && stats.nonHtml.get() >= MIN_NON_HTML
+    }
+
+    fun html(url: String) {
+        patterns.computeIfAbsent(pattern(url), { PatternStats() }).html.incrementAndGet()
+    }
+
+    fun nonHtml(url: String, contentType: String) {
+        val pattern = pattern(url)
+        val stats = patterns.computeIfAbsent(pattern, { PatternStats() })
+        if (stats.nonHtml.incrementAndGet() == MIN_NON_HTML && stats.html.get() == 0) {
+            log.info("$pattern learned as non html ($contentType)")
+        }
+    }
+
+    // e.g. https://blog.de/wp-content/uploads/2018/03/cover.webp -> blog.de/wp-content/*.webp
+    private fun pattern(url: String): String {
+        val uri = try { URI(url) } catch (e: Exception) { return url }
+        val segments = (uri.path ?: "").split("/").filter { it.isNotEmpty() }
+        val first = if (segments.size > 1) segments.first().replace(DIGITS, "#") else ""
+        val extension = segments.lastOrNull()?.substringAfterLast('.', "")?.toLowerCase() ?: ""
+        val query = if (uri.query != null) "?" else ""
+        return "${uri.host?.toLowerCase()}/$first/*.$extension$query"
+    }
+
+    private class PatternStats(val html: AtomicInteger = AtomicInteger(), val nonHtml: AtomicInteger = AtomicInteger())
+}
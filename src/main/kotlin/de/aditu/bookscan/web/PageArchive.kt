@@ -0,0 +1,172 @@
+package de.aditu.bookscan.web
+
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import java.io.BufferedWriter
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption
+import java.time.Instant
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+import javax.annotation.PreDestroy
+
+/**
+ * archive of raw fetched pages. in record mode every fetched page is appended as gzipped warc resource record
+ * to a segment file and its position is written to a url index. in replay mode pages are read from the archive
+ * instead of fetching them, so the blogs can be parsed again without crawling.
+ */
+@Component
+class PageArchive(@Value("\${crawler.archiveMode:off}") archiveMode: String,
+                  @Value("\${crawler.archivePath:./archive}") path: String,
+                  @Value("\${crawler.archiveSegmentSize:536870912}") private val segmentSize: Long) {
+
+    companion object {
+        private val INDEX_FILENAME = "index.tsv"
+        private val SEGMENT_FILENAME = "segment-%05d.warc.gz"
+        private val HEADER_END = "\r\n\r\n".toByteArray(StandardCharsets.US_ASCII)
+    }
+
+    private val log = LoggerFactory.getLogger(this.javaClass)
+
+    private val mode = Mode.valueOf(archiveMode.toUpperCase())
+    private val directory = File(path)
+    private val index = ConcurrentHashMap<String, Location>()
+    private var segment = 0
+    private var segmentOut: FileOutputStream? = null
+    private var indexWriter: BufferedWriter? = null
+
+    val recording get() = mode == Mode.RECORD
+    val replaying get() = mode == Mode.REPLAY
+
+    init {
+        if (mode != Mode.OFF) {
+            directory.mkdirs()
+            loadIndex()
+            log.info("page archive ${mode.name.toLowerCase()}: ${index.size} pages in $directory")
+        }
+        if (recording) {
+            segment = (index.values.map { it.segment }.max() ?: 0) + 1
+            segmentOut = FileOutputStream(segmentFile(segment), true)
+            indexWriter = Files.newBufferedWriter(File(directory, INDEX_FILENAME).toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+        }
+    }
+
+    /**
+     * appends the page to the current segment, a new segment is started when the current one is full
+     */
+    @Synchronized
+    fun record(url: String, content: String) {
+        val out = segmentOut ?: return
+        if (out.channel.position() >= segmentSize) {
+            rotate()
+            return record(url, content)
+        }
+
+        val bytes = gzip(warcRecord(url, content))
+        val offset = out.channel.position()
+        out.write(bytes)
+        out.flush()
+
+        val key = UrlCanonicalizer.key(url)
+        index[key] = Location(segment, offset, bytes.size)
+        indexWriter?.write("$key\t$segment\t$offset\t${bytes.size}")
+        indexWriter?.newLine()
+        indexWriter?.flush()
+    }
+
+    /**
+     * @return the archived page content or null if the url is not archived
+     */
+    fun read(url: String): String? {
+        val location = index[UrlCanonicalizer.key(url)] ?: return null
+        val bytes = ByteArray(location.length)
+        RandomAccessFile(segmentFile(location.segment), "r").use {
+            it.seek(location.offset)
+            it.readFully(bytes)
+        }
+        val record = GZIPInputStream(ByteArrayInputStream(bytes)).use { it.readBytes() }
+        val headerEnd = indexOf(record, HEADER_END)
+        val headers = String(record, 0, headerEnd, StandardCharsets.UTF_8)
+        val contentLength = headers.lines()
+                .firstOrNull { it.startsWith("Content-Length:") }
+                ?.substringAfter(":")?.trim()?.toInt() ?: (record.size - headerEnd - HEADER_END.size)
+        return String(record, headerEnd + HEADER_END.size, contentLength, StandardCharsets.UTF_8)
+    }
+
+    @PreDestroy
+    @Synchronized
+    fun close() {
+        segmentOut?.close()
+        indexWriter?.close()
+    }
+
+    private fun rotate() {
+        segmentOut?.close()
+        segment++
+        segmentOut = FileOutputStream(segmentFile(segment), true)
+    }
+
+    private fun loadIndex() {
+        val file = File(directory, INDEX_FILENAME)
+        if (!file.exists()) {
+            return
+        }
+        file.forEachLine(StandardCharsets.UTF_8) { line ->
+            val parts = line.split("\t")
+            if (parts.size == 4) {
+                index[parts[0]] = Location(parts[1].toInt(), parts[2].toLong(), parts[3].toInt())
+            }
+        }
+    }
+
+    private fun warcRecord(url: String, content: String): ByteArray {
+        val body = content.toByteArray(StandardCharsets.UTF_8)
+        val header = "WARC/1.0\r\n" +
+                "WARC-Type: resource\r\n" +
+                "WARC-Target-URI: $url\r\n" +
+                "WARC-Date: ${Instant.now()}\r\n" +
+                "WARC-Record-ID: <urn:uuid:${UUID.randomUUID()}>\r\n" +
+                "Content-Type: text/html; charset=utf-8\r\n" +
+                "Content-Length: ${body.size}\r\n\r\n"
+        return header.toByteArray(StandardCharsets.UTF_8) + body + HEADER_END
+    }
+
+    // every record is a gzip member of its own, so records can be read by offset
+    private fun gzip(bytes: ByteArray): ByteArray {
+        val out = ByteArrayOutputStream()
+        GZIPOutputStream(out).use { it.write(bytes) }
+        return out.toByteArray()
+    }
+
+    private fun indexOf(bytes: ByteArray, search: ByteArray): Int {
+        outer@ for (i in 0..bytes.size - search.size) {
+            for (j in search.indices) {
+                if (bytes[i + j] != search[j]) {
+                    continue@outer
+                }
+            }
+            return i
+        }
+        return bytes.size
+    }
+
+    private fun segmentFile(segment: Int) = File(directory, String.format(SEGMENT_FILENAME, segment))
+
+    private data class Location(val segment: Int, val offset: Long, val length: Int)
+
+    private enum class Mode {
+        OFF,
+        RECORD,
+        REPLAY
+    }
+}
@@ -0,0 +1,155 @@
+package de.aditu.bookscan.web
+
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.core.io.buffer.DataBuffer
+import org.springframework.core.io.buffer.DataBufferUtils
+import org.springframework.http.HttpHeaders
+import org.springframework.http.MediaType
+import org.springframework.http.ResponseEntity
+import org.springframework.stereotype.Component
+import org.springframework.web.reactive.function.BodyExtractors
+import org.springframework.web.reactive.function.client.ClientResponse
+import org.springframework.web.reactive.function.client.WebClient
+import org.springframework.web.reactive.function.client.WebClientResponseException
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.io.ByteArrayOutputStream
+import java.net.URI
+import java.nio.charset.StandardCharsets
+import java.time.Duration
+import java.util.function.BiFunction
+
+/**
+ * loads a single page. the body is read buffer by buffer and the download is cancelled
+ * as soon as it exceeds the maximum body size. responses with a larger content length are cancelled before the body
+ * is read, html only loads also cancel responses of other content types and skip urls learned as non html.
+ * requests are paced by the host rate controller, failed requests are retried with jittered backoff.
+ */
+@Component
+class PageLoader(@Autowired private val webClient: WebClient,
+                 @Autowired private val archive: PageArchive,
+                 @Autowired private val rateController: HostRateController,
+                 @Autowired private val nonHtmlPatterns: NonHtmlPatterns,
+                 @Value("\${crawler.maxBodySize:5242880}") private val maxBodySize: Int) {
+
+    companion object {
+        private val RETRY_HTTP_CLIENT = 3
+        private val READ_TIMEOUT_IN_MS = 30000L
+        private val HTML_TYPES = listOf(MediaType.TEXT_HTML, MediaType.APPLICATION_XHTML_XML)
+
+        // client errors except 429 will not change with a retry
+        internal fun isRetryable(error: Throwable) = when (error) {
+            is BodyTooLargeException, is NotHtmlException -> false
+            is WebClientResponseException -> error.rawStatusCode == 429 || error.rawStatusCode >= 500
+            else -> true
+        }
+    }
+
+    /**
+     * @param url the page to load
+     * @param validators if given conditional request headers are sent
+     * @param htmlOnly if true, responses which are no html pages are cancelled and return empty
+     * @return the body of the page, empty if the page has no body or did not change since the last fetch.
+     * in replay mode the page is read from the archive
+     */
+    fun load(url: String, validators: PageValidators? = null, htmlOnly: Boolean = false): Mono<String> {
+        if (archive.replaying) {
+            return Mono.fromCallable { archive.read(url) }
+        }
+        if (htmlOnly && nonHtmlPatterns.isNonHtml(url)) {
+            return Mono.empty()
+        }
+        // deferred, so every retry reserves a new slot of the host
+        return Mono.defer { Mono.delay(Duration.ofMillis(rateController.reserve(url))) }
+                .flatMap { request(url, validators, htmlOnly) }
+                .retryWhen { errors ->
+                    errors.zipWith(Flux.range(1, RETRY_HTTP_CLIENT + 1), BiFunction<Throwable, Int, Pair<Throwable, Int>> { error, attempt -> Pair(error, attempt) })
+                            .flatMap { (error, attempt) ->
+                                if (attempt > RETRY_HTTP_CLIENT || !isRetryable(error)) Mono.error<Long>(error)
+                                else Mono.delay(Duration.ofMillis(rateController.backoff(url, attempt)))
+                            }
+                }
+                .doOnNext { if (archive.recording && it.statusCode.is2xxSuccessful && it.body != null) archive.record(url, it.body!!) }
+                .filter { it.body != null && validators?.isUnchanged(url, it) != true }
+                .map { it.body!! }
+                .onErrorResume(NotHtmlException::class.java) { Mono.empty() }
+    }
+
+    private fun request(url: String, validators: PageValidators?, htmlOnly: Boolean): Mono<ResponseEntity<String>> {
+        val start = System.currentTimeMillis()
+        return webClient.get()
+                .uri(URI.create(url))
+                .headers { validators?.addConditionalHeaders(url, it) }
+                .exchange()
+                .doOnNext { rateController.onResponse(url, it.statusCode(), System.currentTimeMillis() - start,
+                        it.headers().asHttpHeaders().getFirst(HttpHeaders.RETRY_AFTER)) }
+                .flatMap { if (htmlOnly) checkHtml(url, it) else Mono.just(it) }
+                .flatMap { toEntity(it) }
+                .timeout(Duration.ofMillis(READ_TIMEOUT_IN_MS))
+                .doOnError { if (it !is WebClientResponseException && it !is BodyTooLargeException && it !is NotHtmlException) rateController.onFailure(url) }
+    }
+
+    // decides by the content type header before the body is read, responses without content type are treated as html
+    private fun checkHtml(url: String, response: ClientResponse): Mono<ClientResponse> {
+        val status = response.statusCode()
+        val contentType = response.headers().contentType().orElse(null)
+        if (!status.is2xxSuccessful || contentType == null) {
+            return Mono.just(response)
+        }
+        if (HTML_TYPES.any { it.isCompatibleWith(contentType) }) {
+            nonHtmlPatterns.html(url)
+            return Mono.just(response)
+        }
+        nonHtmlPatterns.nonHtml(url, contentType.toString())
+        return cancel(response).then(Mono.error(NotHtmlException(url, contentType.toString())))
+    }
+
+    // takes at most the first buffer and cancels the rest of the download
+    private fun cancel(response: ClientResponse): Mono<Void> =
+            response.body(BodyExtractors.toDataBuffers())
+                    .take(1)
+                    .doOnNext { DataBufferUtils.release(it) }
+                    .onErrorResume { Mono.empty() }
+                    .then()
+
+    private fun toEntity(response: ClientResponse): Mono<ResponseEntity<String>> {
+        val status = response.statusCode()
+        val charset = response.headers().contentType().map { it.charset }.orElse(null) ?: StandardCharsets.UTF_8
+        val contentLength = response.headers().contentLength()
+        if (contentLength.isPresent && contentLength.asLong > maxBodySize) {
+            return cancel(response).then(Mono.error(BodyTooLargeException(maxBodySize)))
+        }
+        if (status.isError) {
+            return read(response.body(BodyExtractors.toDataBuffers()))
+                    .defaultIfEmpty(ByteArray(0))
+                    .flatMap { Mono.error<ResponseEntity<String>>(WebClientResponseException(
+                            "ClientResponse has erroneous status code: ${status.value()} ${status.reasonPhrase}",
+                            status.value(), status.reasonPhrase, response.headers().asHttpHeaders(), it, charset)) }
+        }
+        return read(response.body(BodyExtractors.toDataBuffers()))
+                .map { ResponseEntity(String(it, charset), response.headers().asHttpHeaders(), status) }
+                .defaultIfEmpty(ResponseEntity<String>(response.headers().asHttpHeaders(), status))
+    }
+
+    private fun read(body: Flux<DataBuffer>): Mono<ByteArray> =
+            body.reduce(ByteArrayOutputStream()) { out, buffer ->
+                try {
+                    if (out.size() + buffer.readableByteCount() > maxBodySize) {
+                        throw BodyTooLargeException(maxBodySize)
+                    }
+                    val bytes = ByteArray(buffer.readableByteCount())
+                    buffer.read(bytes)
+                    out.write(bytes)
+                    out
+                } finally {
+                    DataBufferUtils.release(buffer)
+                }
+            }
+                    .filter { it.size() > 0 }
+                    .map { it.toByteArray() }
+
+    class BodyTooLargeException(maxBodySize: Int) : RuntimeException("response body exceeds $maxBodySize bytes")
+
+    class NotHtmlException(url: String, contentType: String) : RuntimeException("$url is no html page: $contentType")
+}
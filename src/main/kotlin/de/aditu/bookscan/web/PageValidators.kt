@@ -0,0 +1,54 @@
+package de.aditu.bookscan.web
+
+import com.google.common.hash.Hashing
+import de.aditu.bookscan.model.PageValidator
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpStatus
+import org.springframework.http.ResponseEntity
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * validators (etag, last modified, content hash) of the fetched pages of one blog.
+ * known validators are sent as conditional request headers, pages which did not change are neither parsed nor followed.
+ */
+class PageValidators(private val blogUrl: String, known: List<PageValidator> = listOf()) {
+
+    private val known = known.associateBy { it.url }
+    private val updated = ConcurrentHashMap<String, PageValidator>()
+
+    fun addConditionalHeaders(url: String, headers: HttpHeaders) {
+        val validator = known[url] ?: return
+        if (validator.etag != null) {
+            headers.set(HttpHeaders.IF_NONE_MATCH, validator.etag)
+        }
+        if (validator.lastModified != null) {
+            headers.set(HttpHeaders.IF_MODIFIED_SINCE, validator.lastModified)
+        }
+    }
+
+    /**
+     * @return true if the server answered with 304 or the content hash equals the last fetch.
+     * validators of new or changed pages are remembered for saving them after the scan.
+     */
+    fun isUnchanged(url: String, response: ResponseEntity<String>): Boolean {
+        if (response.statusCode == HttpStatus.NOT_MODIFIED) {
+            return true
+        }
+
+        val hash = Hashing.murmur3_128().hashString(response.body ?: "", StandardCharsets.UTF_8).toString()
+        if (known[url]?.hash == hash) {
+            return true
+        }
+
+        updated.put(url, PageValidator(
+                url = url,
+                blogUrl = blogUrl,
+                etag = response.headers.eTag,
+                lastModified = response.headers.getFirst(HttpHeaders.LAST_MODIFIED),
+                hash = hash))
+        return false
+    }
+
+    fun updated(): List<PageValidator> = updated.values.toList()
+}
@@ -0,0 +1,75 @@
+package de.aditu.bookscan.web
+
+import com.google.common.hash.Hashing
+import java.nio.charset.StandardCharsets
+
+/**
+ * memory compact set of already seen urls. instead of the url strings only 64 bit fingerprints
+ * of the canonical url keys are stored in an open addressing long array.
+ */
+class SeenSet(initialCapacity: Int = INITIAL_CAPACITY) {
+
+    companion object {
+        private val INITIAL_CAPACITY = 1024
+        private val EMPTY = 0L
+    }
+
+    private var table = LongArray(Integer.highestOneBit(Math.max(initialCapacity, 2) * 2 - 1))
+    private var size = 0
+
+    /**
+     * @return true if the url was not seen before
+     */
+    @Synchronized
+    fun add(url: String): Boolean {
+        if ((size + 1) * 2 > table.size) {
+            grow()
+        }
+        return insert(fingerprint(url))
+    }
+
+    @Synchronized
+    fun contains(url: String): Boolean {
+        val fingerprint = fingerprint(url)
+        var index = fingerprint.toInt() and (table.size - 1)
+        while (table[index] != EMPTY) {
+            if (table[index] == fingerprint) {
+                return true
+            }
+            index = (index + 1) and (table.size - 1)
+        }
+        return false
+    }
+
+    @Synchronized
+    fun size() = size
+
+    private fun insert(fingerprint: Long): Boolean {
+        var index = fingerprint.toInt() and (table.size - 1)
+        while (table[index] != EMPTY) {
+            if (table[index] == fingerprint) {
+                return false
+            }
+            index = (index + 1) and (table.size - 1)
+        }
+        table[index] = fingerprint
+        size++
+        return true
+    }
+
+    private fun grow() {
+        val old = table
+        table = LongArray(old.size * 2)
+        size = 0
+        for (fingerprint in old) {
+            if (fingerprint != EMPTY) {
+                insert(fingerprint)
+            }
+        }
+    }
+
+    private fun fingerprint(url: String): Long {
+        val fingerprint = Hashing.murmur3_128().hashString(UrlCanonicalizer.key(url), StandardCharsets.UTF_8).asLong()
+        return if (fingerprint == EMPTY) 1L else fingerprint
+    }
+}
@@ -0,0 +1,53 @@
+package de.aditu.bookscan.web
+
+import java.net.URI
+
+/**
+ * brings urls into a canonical form, so that the same page is fetched only once
+ */
+object UrlCanonicalizer {
+
+    private val TRACKING_PARAMETERS = listOf("utm_", "fbclid=", "gclid=", "share=", "replytocom=")
+    private val BLOGSPOT_DOMAIN = Regex("\\.blogspot\\.[a-z.]+$")
+
+    /**
+     * lowercase scheme and host, no default port, no fragment, sorted query parameters without tracking parameters
+     * @param url absolute url
+     * @return the canonical url or the given url if it can't be parsed
+     */
+    fun canonicalize(url: String): String {
+        val uri = parse(url) ?: return url
+        val scheme = uri.scheme.toLowerCase()
+        return scheme + "://" + uri.host.toLowerCase() + port(scheme, uri.port) + path(uri) + query(uri)
+    }
+
+    /**
+     * key for detecting duplicates: additionally ignores the scheme, www, the blogspot country domain and trailing slashes
+     * @param url absolute url
+     * @return key of the url
+     */
+    fun key(url: String): String {
+        val uri = parse(url) ?: return url
+        val host = uri.host.toLowerCase().removePrefix("www.").replace(BLOGSPOT_DOMAIN, ".blogspot")
+        return host + port(uri.scheme.toLowerCase(), uri.port) + path(uri).trimEnd('/') + query(uri)
+    }
+
+    private fun parse(url: String): URI? {
+        val uri = try { URI(url.trim()) } catch (e: Exception) { return null }
+        return if (uri.scheme == null || uri.host == null) null else uri
+    }
+
+    private fun port(scheme: String, port: Int) =
+            if (port == -1 || (scheme == "http" && port == 80) || (scheme == "https" && port == 443)) "" else ":$port"
+
+    private fun path(uri: URI) = if (uri.rawPath.isNullOrEmpty()) "/" else uri.rawPath
+
+    private fun query(uri: URI): String {
+        val parameters = uri.rawQuery
+                ?.split("&")
+                ?.filter { parameter -> parameter.isNotEmpty() && TRACKING_PARAMETERS.none { parameter.startsWith(it, true) } }
+                ?.sorted()
+                ?: listOf()
+        return if (parameters.isEmpty()) "" else "?" + parameters.joinToString("&")
+    }
+}
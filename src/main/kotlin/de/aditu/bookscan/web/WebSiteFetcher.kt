@@ -1,32 +1,36 @@
 package de.aditu.bookscan.web
 
+import de.aditu.bookscan.service.TaskRunner
+import de.aditu.bookscan.telemetry.CrawlTelemetry
 import org.jsoup.Jsoup
 import org.jsoup.nodes.Document
-import org.jsoup.nodes.Element
-import org.openqa.selenium.By
-import org.openqa.selenium.chrome.ChromeDriver
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Service
-import org.springframework.web.reactive.function.client.WebClient
-import java.net.URI
-import java.time.Duration
-import java.util.concurrent.ConcurrentHashMap
+import reactor.core.publisher.Mono
+import reactor.core.publisher.UnicastProcessor
+import reactor.core.scheduler.Schedulers
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
 /**
- * fetches all pages of a given url
+ * fetches all pages of a given url. links with a higher priority are fetched first
  */
 @Service
-class WebSiteFetcher(@Autowired private val webClient: WebClient,
-                     @Autowired private val chromeDriver: ChromeDriver) {
+class WebSiteFetcher(@Autowired private val pageLoader: PageLoader,
+                     @Autowired private val browserPool: BrowserPool,
+                     @Autowired private val telemetry: CrawlTelemetry,
+                     @Autowired private val taskRunner: TaskRunner,
+                     @Value("\${crawler.reactive:false}") private val reactive: Boolean,
+                     @Value("\${crawler.reactiveConcurrency:16}") private val reactiveConcurrency: Int) {
 
     companion object {
-        private val RETRY_HTTP_CLIENT = 3L
-        private val WEBDRIVER_WAIT_IN_MS = 2000L
-        private val READ_TIMEOUT_IN_MS = 30000L
         private val THREADS = 6
     }
 
@@ -34,161 +38,281 @@ class WebSiteFetcher(@Autowired private val webClient: WebClient,
               limit: Int = 0,
               ignore: List<String> = listOf(),
               simulateBrowser: Boolean = false,
+              validators: PageValidators? = null,
+              seeds: List<String> = listOf(),
+              followLinks: Boolean = true,
+              needsDocument: (url: String) -> Boolean = { true },
+              frontier: CrawlFrontier? = null,
+              priority: (url: String) -> Double = { 0.0 },
               success: (content: Document, url: String) -> Boolean,
               error: (exception: Throwable, url: String) -> Boolean) {
 
+        if (reactive && !simulateBrowser) {
+            ReactiveFetcher(
+                    baseUrl = url,
+                    limit = limit,
+                    ignore = ignore,
+                    validators = validators,
+                    seeds = seeds,
+                    followLinks = followLinks,
+                    needsDocument = needsDocument,
+                    frontier = frontier,
+                    priority = priority,
+                    success = success,
+                    error = error,
+                    telemetry = telemetry,
+                    pageLoader = pageLoader,
+                    concurrency = reactiveConcurrency).scan()
+            return
+        }
+
         val fetcher = Fetcher(
                 baseUrl = url,
                 limit = limit,
                 ignore = ignore,
                 simulateBrowser = simulateBrowser,
+                validators = validators,
+                followLinks = followLinks,
+                needsDocument = needsDocument,
+                frontier = frontier,
+                priority = priority,
                 threads = if(simulateBrowser == true) 1 else THREADS,
+                threadFactory = taskRunner.threadFactory(),
                 success = success,
                 error = error,
-                webClient = webClient,
-                chromeDriver = chromeDriver)
-        fetcher.scan(url)
+                telemetry = telemetry,
+                pageLoader = pageLoader,
+                browserPool = browserPool)
+        fetcher.start(seeds)
         fetcher.waitUntilFinished()
     }
 
 
-    data class Fetcher(val webClient: WebClient,
-                       val chromeDriver: ChromeDriver,
+    data class Fetcher(val pageLoader: PageLoader,
+                       val browserPool: BrowserPool,
                        val threads: Int = THREADS,
-                       val executor: ExecutorService = Executors.newFixedThreadPool(threads),
+                       val threadFactory: ThreadFactory = Executors.defaultThreadFactory(),
+                       val executor: ExecutorService = ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, PriorityBlockingQueue(), threadFactory),
                        val baseUrl: String,
                        val limit: Int = 0,
                        val ignore: List<String> = listOf(),
                        val simulateBrowser: Boolean = false,
+                       val validators: PageValidators? = null,
+                       val followLinks: Boolean = true,
+                       val needsDocument: (url: String) -> Boolean = { true },
+                       val frontier: CrawlFrontier? = null,
+                       val priority: (url: String) -> Double = { 0.0 },
+                       val telemetry: CrawlTelemetry,
                        val success: (content: Document, url: String) -> Boolean,
                        val error: (exception: Throwable, url: String) -> Boolean) {
 
         private val running = AtomicInteger(1)
         private val fetched = AtomicInteger(0)
-        private val processed: ConcurrentHashMap<String, Boolean> = ConcurrentHashMap()
+        private val processed = SeenSet()
+        private val linkFilter = LinkFilter(baseUrl, ignore)
+        private val sequence = AtomicLong()
+        // queued but not scanned pages, tasks dropped by shutdownNow never reach the finally block of scan
+        private val pending = AtomicInteger(0)
+
+        /**
+         * enqueues the base url, the pending urls of an interrupted scan and already known urls (e.g. discovered by feed or sitemap).
+         * completed urls of an interrupted scan are not fetched again.
+         */
+        fun start(seeds: List<String>) {
+            try {
+                frontier?.completed()?.forEach { processed.add(it) }
+                enqueue(baseUrl)
+                frontier?.pending()?.forEach { enqueue(it) }
+                seeds.filter { linkFilter.accept(it) }.forEach { enqueue(it) }
+            } finally {
+                if (running.decrementAndGet() == 0) {
+                    executor.shutdownNow()
+                }
+            }
+        }
 
         fun scan(link: String) {
             try {
                 val content = try {
-                    if (simulateBrowser) {
+                    val start = System.currentTimeMillis()
+                    val page = if (simulateBrowser) {
                         loadInBrowser(link)
                     } else {
                         load(link)
                     }
+                    telemetry.fetched(link, System.currentTimeMillis() - start, page?.length ?: 0)
+                    page
                 } catch (e: Exception) {
+                    telemetry.fetchFailed()
                     if (!error(e, link)) {
                         executor.shutdownNow()
                     }
                     null
                 }
 
-                var links = listOf<Element>()
-                if (content != null) {
+                var links = listOf<String>()
+                if (content != null && needsDocument(link)) {
                     val doc = Jsoup.parse(content)
                     if (!success(doc, link)) {
                         executor.shutdownNow()
                     }
-                    links = doc.select("a")
-                }
-
-                for (a in links) {
-                    val linkUrl = parseUrl(baseUrl, a)
-                    if (!isIgnoredUrl(linkUrl, ignore) && isInternalLink(linkUrl, baseUrl) && !processed.containsKey(linkUrl)) {
-                        //log.info("${fetched.size} ${linkUrl}")
-                        processed.put(linkUrl, false)
-                        running.incrementAndGet()
-                        executor.submit { scan(linkUrl) }
+                    if (followLinks) {
+                        links = linkFilter.links(doc)
                     }
+                } else if (content != null && followLinks) {
+                    links = linkFilter.links(content)
                 }
+
+                links.forEach { enqueue(it) }
             } finally {
+                frontier?.completed(link)
+                pending.decrementAndGet()
+                telemetry.pageDone()
                 if ((limit != 0 && fetched.incrementAndGet() > limit) || running.decrementAndGet() == 0) {
                     executor.shutdownNow()
                 }
             }
         }
 
+        private fun enqueue(linkUrl: String) {
+            if (processed.add(linkUrl)) {
+                //log.info("${fetched.size} ${linkUrl}")
+                frontier?.discovered(linkUrl)
+                pending.incrementAndGet()
+                telemetry.pageQueued()
+                running.incrementAndGet()
+                executor.execute(PrioritizedTask(-priority(linkUrl), sequence.incrementAndGet(), { scan(linkUrl) }))
+            }
+        }
+
         fun waitUntilFinished() {
             executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS)
+            telemetry.pagesDropped(pending.getAndSet(0))
         }
 
-        private fun isInternalLink(link: String, baseUrl: String) =
-                removeBlogspotDomain(link).toLowerCase().startsWith(removeBlogspotDomain(baseUrl).toLowerCase())
+        private fun load(url: String): String? = pageLoader.load(url, validators, htmlOnly = true).block()
+
+        private fun loadInBrowser(url: String): String? = browserPool.load(url)
+    }
+
+    /**
+     * non blocking fetcher: discovered links are emitted into a flux and fetched with a bounded flatMap concurrency
+     * on the event loop of the web client. only the success and error callbacks run on a worker scheduler
+     * because they parse the page and may block (e.g. saving into elasticsearch).
+     * the scan itself blocks until the blog is done, the callers start every blog on its own task.
+     */
+    class ReactiveFetcher(private val pageLoader: PageLoader,
+                          private val concurrency: Int,
+                          private val baseUrl: String,
+                          private val limit: Int = 0,
+                          ignore: List<String> = listOf(),
+                          private val validators: PageValidators? = null,
+                          private val seeds: List<String> = listOf(),
+                          private val followLinks: Boolean = true,
+                          private val needsDocument: (url: String) -> Boolean = { true },
+                          private val frontier: CrawlFrontier? = null,
+                          private val priority: (url: String) -> Double = { 0.0 },
+                          private val telemetry: CrawlTelemetry,
+                          private val success: (content: Document, url: String) -> Boolean,
+                          private val error: (exception: Throwable, url: String) -> Boolean) {
+
+        private val running = AtomicInteger(0)
+        private val fetched = AtomicInteger(0)
+        private val processed = SeenSet()
+        private val linkFilter = LinkFilter(baseUrl, ignore)
+        private val sequence = AtomicLong()
+        private val queue = UnicastProcessor.create<PrioritizedLink>(PriorityBlockingQueue())
+        // links are emitted by several worker threads, the sink serializes their signals
+        private val sink = queue.sink()
 
-        private fun removeBlogspotDomain(link: String) =
-                link.replace(".blogspot.de", ".blogspot.")
-                    .replace(".blogspot.com", ".blogspot.")
-                    .replace(".blogspot.ch", ".blogspot.")
-                    .replace(".blogspot.at", ".blogspot.")
+        @Volatile
+        private var stopped = false
 
-        // handle ./ links and #hashes
-        private fun parseUrl(baseUrl: String, a: Element?): String {
-            if (a == null) {
-                return ""
+        /**
+         * fetches all pages and blocks until no discovered link is left or a callback stopped the scan
+         */
+        fun scan() {
+            frontier?.completed()?.forEach { processed.add(it) }
+            enqueueAll(listOf(baseUrl) + (frontier?.pending() ?: listOf()) + seeds.filter { linkFilter.accept(it) })
+            if (running.get() == 0) {
+                sink.complete()
             }
-            var url = a.absUrl("href")
-            if (url.isEmpty()) {
-                url = a.attr("href")
-                url = if (url.startsWith("./")) url.substring(2) else url
-
-                url = when {
-                    url.startsWith("/") -> URI(baseUrl).scheme + "://" + URI(baseUrl).host + url
-                    url == "." -> baseUrl
-                    else -> baseUrl + "/" + url
+            queue.map { it.url }
+                    .flatMap({ link -> Mono.defer { if (stopped) Mono.empty<Unit>() else fetch(link) }.doFinally { finish(link) } }, concurrency)
+                    .then()
+                    .block()
+        }
+
+        private fun fetch(link: String): Mono<Unit> {
+            val start = System.currentTimeMillis()
+            return pageLoader.load(link, validators, htmlOnly = true)
+                    .doOnNext { telemetry.fetched(link, System.currentTimeMillis() - start, it.length) }
+                    .doOnError { telemetry.fetchFailed() }
+                    .publishOn(Schedulers.elastic())
+                    .map { process(it, link) }
+                    .onErrorResume { exception ->
+                        if (!error(exception, link)) {
+                            stopped = true
+                        }
+                        Mono.empty()
+                    }
+        }
+
+        private fun process(content: String, link: String) {
+            if (!needsDocument(link)) {
+                if (followLinks) {
+                    enqueueAll(linkFilter.links(content))
                 }
+                return
             }
 
-            url = url.replace(".blogspot.co.at", ".blogspot.de")
-            url = removeHash(url)
-            return url
+            val doc = Jsoup.parse(content)
+            if (!success(doc, link)) {
+                stopped = true
+            }
+            if (stopped || !followLinks) {
+                return
+            }
+            enqueueAll(linkFilter.links(doc))
         }
 
-        private fun isIgnoredUrl(linkUrl: String, ignore: List<String>): Boolean {
-            val linkUri = try {
-                URI(linkUrl)
-            } catch (e: Exception) {
-                return true
+        private fun enqueueAll(links: List<String>) {
+            for (linkUrl in links) {
+                if (processed.add(linkUrl)) {
+                    enqueue(linkUrl)
+                }
             }
-
-            return linkUri.toString().trim().isEmpty()
-                    || linkUri.path == null
-                    || linkUri.path.startsWith("//")
-                    || linkUri.path.startsWith("data:image")
-                    || (linkUri.path == "/" && linkUri.query == null)
-                    || linkUri.path.contains("admin.php")
-                    || linkUri.path.contains("login.php")
-                    || linkUri.path.contains("wp-admin")
-                    || linkUri.path.contains("javascript:")
-                    || linkUri.path.toLowerCase().endsWith("jpg")
-                    || linkUri.path.toLowerCase().endsWith("png")
-                    || linkUri.path.toLowerCase().endsWith("gif")
-                    || linkUri.path.toLowerCase().endsWith("mp3")
-                    || linkUri.path.toLowerCase().endsWith("avi")
-                    || linkUri.path.toLowerCase().endsWith("mpg")
-                    || linkUri.path.toLowerCase().endsWith("mpeg")
-                    || (linkUri.query != null && linkUri.query.contains("m=1"))
-                    || (linkUri.query != null && linkUri.query.contains("m=0"))
-                    || ignore.filter { linkUrl.contains(it, true) }.count() > 0
         }
 
-        private fun load(url: String): String? {
-            return webClient.get()
-                    .uri(URI.create(url))
-                    .retrieve()
-                    .bodyToMono(String::class.java)
-                    .retry(RETRY_HTTP_CLIENT)
-                    .block(Duration.ofMillis(READ_TIMEOUT_IN_MS))
+        private fun enqueue(link: String) {
+            frontier?.discovered(link)
+            telemetry.pageQueued()
+            running.incrementAndGet()
+            sink.next(PrioritizedLink(-priority(link), sequence.incrementAndGet(), link))
         }
 
-        private fun loadInBrowser(url: String): String? {
-            chromeDriver.get(url)
-            return try {
-                Thread.sleep(WEBDRIVER_WAIT_IN_MS)
-                chromeDriver.findElement(By.tagName("html")).getAttribute("innerHTML")
-            } catch (exception: Exception) {
-                ""
+        private fun finish(link: String) {
+            frontier?.completed(link)
+            telemetry.pageDone()
+            if (limit != 0 && fetched.incrementAndGet() > limit) {
+                stopped = true
+            }
+            if (running.decrementAndGet() == 0) {
+                sink.complete()
             }
         }
+    }
+
+    // lower rank first, links with the same rank in discovery order
+    private class PrioritizedTask(val rank: Double, val sequence: Long, val task: () -> Unit) : Runnable, Comparable<PrioritizedTask> {
+        override fun run() = task()
+
+        override fun compareTo(other: PrioritizedTask) =
+                compareValuesBy(this, other, { it.rank }, { it.sequence })
+    }
 
-        private fun removeHash(url: String) = if (url.contains("#")) url.substring(0, url.indexOf("#")) else url
+    private class PrioritizedLink(val rank: Double, val sequence: Long, val url: String) : Comparable<PrioritizedLink> {
+        override fun compareTo(other: PrioritizedLink) =
+                compareValuesBy(this, other, { it.rank }, { it.sequence })
     }
-}
\ No newline at end of file
+}
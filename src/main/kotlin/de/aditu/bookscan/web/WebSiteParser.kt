@@ -1,19 +1,22 @@
 package de.aditu.bookscan.web
 
 import de.aditu.bookscan.model.UrlEntry
+import de.aditu.bookscan.telemetry.CrawlTelemetry
+import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Service
 import org.jsoup.Jsoup
 import org.jsoup.nodes.Document
 import org.jsoup.safety.Whitelist
 import java.text.SimpleDateFormat
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import java.util.regex.Pattern
 
 /**
  * parses a given html page for blog article, date and title
  */
 @Service
-class WebSiteParser {
+class WebSiteParser(@Autowired private val telemetry: CrawlTelemetry) {
 
     private val titleSelectors = listOf(".blogpost h2.title", "h1.entry-title", "h2.entry-title", "header h3.entry-title", ".post-title", ".entry-title",
             ".post-header h1", ".posts_title", ".page-title", ".post_title", ".post-header h1", ".posttitle", ".single-title",
@@ -73,8 +76,22 @@ class WebSiteParser {
     private val isArticleUrlFullDatePattern = Pattern.compile("(\\d{4}/\\d{2}/\\d{2}/).+", Pattern.DOTALL)
     private val isArticleUrlFullDateWithoutTextPattern = Pattern.compile("\\d{4}/\\d{2}/\\d{2}/?$", Pattern.DOTALL)
     private val isArticleSelector = "body.single"
+    // listing pages (tags, categories, labels, authors, pagination) which are never an article of a blog with default settings
+    private val isOverviewUrlPattern = Pattern.compile("/(tag|category|kategorie|label|author)/|[?&]updated-max=|/page/\\d+/?$")
+    private val articlePagePatterns = ConcurrentHashMap<String, Pattern>()
+    private val overviewUrlParts = listOf("/tag/", "/category/", "/kategorie/", "/label/", "/page/", "/author/", "?page", "&page",
+            "/search", "?s=", "/archiv", "updated-max=")
 
     fun parse(url: String, content: Document, urlEntry: UrlEntry): ParseResult {
+        val start = System.nanoTime()
+        try {
+            return parsePage(url, content, urlEntry)
+        } finally {
+            telemetry.parsed(System.nanoTime() - start)
+        }
+    }
+
+    private fun parsePage(url: String, content: Document, urlEntry: UrlEntry): ParseResult {
         var dom = content
         if (urlEntry.removeRegex != null) {
             var html = dom.html()
@@ -120,6 +137,64 @@ class WebSiteParser {
         )
     }
 
+    /**
+     * decides only by the url whether a page can be an article page. pages which can't be one don't need a dom
+     * @param url the page url
+     * @param urlEntry the blog configuration
+     * @return false if the page is never an article page
+     */
+    fun isArticlePageCandidate(url: String, urlEntry: UrlEntry): Boolean {
+        if (isArticleUrlFullDateWithoutTextPattern.matcher(url).find()) {
+            return false
+        }
+        return when {
+            urlEntry.isArticlePageSelector != null -> true
+            urlEntry.isArticlePagePattern != null -> articlePagePattern(urlEntry.isArticlePagePattern).matcher(url).find()
+            else -> !isOverviewUrlPattern.matcher(url).find()
+        }
+    }
+
+    /**
+     * scores a link by its url shape before it is fetched, higher scores are more likely article pages
+     * @param url the link
+     * @param urlEntry the blog configuration
+     * @return the score, 0 for links without any signal
+     */
+    fun linkScore(url: String, urlEntry: UrlEntry): Double {
+        if (!isArticlePageCandidate(url, urlEntry)) {
+            return -2.0
+        }
+        var score = 0.0
+        if (urlEntry.isArticlePagePattern != null) {
+            score += 3.0
+        }
+        if (isArticleUrlFullDatePattern.matcher(url).find()) {
+            score += 2.0
+        } else if (isArticleUrlPattern.matcher(url).find()) {
+            score += if (urlEntry.useFallbackDateFromUrl == true) 2.0 else 1.5
+        }
+        val lowerUrl = url.toLowerCase()
+        if (overviewUrlParts.any { lowerUrl.contains(it) }) {
+            score -= 1.5
+        }
+        return score
+    }
+
+    /**
+     * article permalinks of an overview or archive page: the links of the post titles and links with a date path
+     * @param content the overview page
+     * @param urlEntry the blog configuration
+     * @return absolute urls without fragment in page order
+     */
+    fun permalinks(content: Document, urlEntry: UrlEntry): List<String> {
+        val titleLinks = (titleSelectors.map { "$it a[href]" } + "a[rel=bookmark]").flatMap { content.select(it) }
+        val dateLinks = content.select("a[href]").filter { isArticleUrlPattern.matcher(it.absUrl("href")).find() }
+        return (titleLinks + dateLinks)
+                .map { it.absUrl("href").substringBefore('#') }
+                .filter { url -> url.isNotEmpty() && isArticlePageCandidate(url, urlEntry) && overviewUrlParts.none { url.toLowerCase().contains(it) } }
+                .distinct()
+    }
+
     private fun isArticlePage(url: String, content: Document, isArticlePageSelector: String? = null, isArticlePagePattern: String? = null): Boolean {
         if (isArticleUrlFullDateWithoutTextPattern.matcher(url).find()) {
             return false
@@ -127,11 +202,14 @@ class WebSiteParser {
 
         return when {
             isArticlePageSelector != null -> content.select(isArticlePageSelector).size > 0
-            isArticlePagePattern != null -> Pattern.compile(isArticlePagePattern, Pattern.DOTALL).matcher(url).find()
+            isArticlePagePattern != null -> articlePagePattern(isArticlePagePattern).matcher(url).find()
             else -> isArticleUrlPattern.matcher(url).find() || content.select(isArticleSelector).size > 0
         }
     }
 
+    // the patterns of the url entries are compiled once, they are matched against every discovered link
+    private fun articlePagePattern(pattern: String): Pattern = articlePagePatterns.computeIfAbsent(pattern, { Pattern.compile(it, Pattern.DOTALL) })
+
     private fun isOverviewPage(content: Document, titleSelector: String?): Boolean {
         val selectors = if (titleSelector != null) listOf(titleSelector) else titleSelectors
         for (selector in selectors) {
@@ -4,8 +4,19 @@ import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
 import de.aditu.bookscan.model.UrlEntry
 import de.aditu.bookscan.service.BlogPreScan
 import de.aditu.bookscan.service.BlogScanStarter
+import de.aditu.bookscan.service.LivenessPreflight
+import de.aditu.bookscan.service.TaskRunner
+import de.aditu.bookscan.telemetry.CrawlTelemetry
+import de.aditu.bookscan.web.ArchiveTraversal
+import de.aditu.bookscan.web.ArticleDiscovery
+import de.aditu.bookscan.web.BrowserPool
+import de.aditu.bookscan.web.HostRateController
+import de.aditu.bookscan.web.NonHtmlPatterns
+import de.aditu.bookscan.web.PageArchive
+import de.aditu.bookscan.web.PageLoader
 import de.aditu.bookscan.web.WebSiteFetcher
 import de.aditu.bookscan.web.WebSiteParser
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import org.junit.Ignore
 import org.junit.Test
 
@@ -14,17 +25,13 @@ class BlogPreScanTest {
     @Test
     @Ignore
     fun testFile() {
-        val configuration = Configuration()
-        val blogPreScan = BlogPreScan(BlogScanStarter(), WebSiteFetcher(configuration.createWebClient(), configuration.chromeDriver("C:\\path\\to\\chromedriver.exe")), WebSiteParser())
+        val blogPreScan = createBlogPreScan()
         blogPreScan.scan("C:\\path\\to\\urls.json")
     }
 
     @Test
     fun testUrl() {
-        val blogPreScan = BlogPreScan(
-                BlogScanStarter(),
-                WebSiteFetcher(Configuration().createWebClient(), Configuration().chromeDriver("C:\\path\\to\\chromedriver.exe")),
-                WebSiteParser())
+        val blogPreScan = createBlogPreScan()
 
         blogPreScan.scan(jacksonObjectMapper().readValue("""
             {
@@ -32,4 +39,32 @@ class BlogPreScanTest {
             }
             """, UrlEntry::class.java), detailedError = true)
     }
+
+    private fun createBlogPreScan(): BlogPreScan {
+        val configuration = Configuration()
+        val connectionMetrics = configuration.connectionMetrics()
+        val dnsCache = configuration.dnsCache(positiveTtlInSeconds = 3600L, negativeTtlInSeconds = 600L)
+        val webClient = configuration.createWebClient(maxConnectionsPerHost = 6, acquireTimeoutInMs = 45000L, idleTimeoutInSeconds = 60,
+                compression = true, tlsSessionCacheSize = 4096L, tlsSessionTimeoutInSeconds = 3600L, metrics = connectionMetrics, dnsCache = dnsCache)
+        val archive = PageArchive(archiveMode = "off", path = "./archive", segmentSize = 536870912L)
+        val rateController = HostRateController(delayBetweenRequests = true)
+        val telemetry = CrawlTelemetry(SimpleMeterRegistry())
+        val taskRunner = TaskRunner(virtualThreads = false)
+        val pageLoader = PageLoader(webClient = webClient, archive = archive, rateController = rateController, nonHtmlPatterns = NonHtmlPatterns(),
+                maxBodySize = 5242880)
+        val webSiteParser = WebSiteParser(telemetry = telemetry)
+        val preflight = LivenessPreflight(webClient = webClient, enabled = true, file = "./preflight.json", ttlInHours = 24L)
+        val blogScanStarter = BlogScanStarter(rateController = rateController, connectionMetrics = connectionMetrics, telemetry = telemetry,
+                dnsCache = dnsCache, taskRunner = taskRunner, preflight = preflight, pageArchive = archive, browserPoolSize = 4)
+        val browserPool = BrowserPool(archive = archive, webdriverPath = "C:\\path\\to\\chromedriver.exe",
+                size = 4, recycleAfter = 200)
+        return BlogPreScan(
+                blogScanStarter,
+                WebSiteFetcher(pageLoader = pageLoader, browserPool = browserPool, telemetry = telemetry, taskRunner = taskRunner,
+                        reactive = false, reactiveConcurrency = 16),
+                webSiteParser,
+                ArticleDiscovery(pageLoader = pageLoader, archiveTraversal = ArchiveTraversal(pageLoader, webSiteParser, enabled = true)),
+                cacheFile = "./prescan-cache.jsonl",
+                cacheTtlDays = 7L)
+    }
 }
@@ -0,0 +1,68 @@
+package de.aditu.bookscan.calc
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SimHashTest {
+
+    companion object {
+        private val REVIEW = """
+            Daniel Kehlmann erzählt in seinem Roman Die Vermessung der Welt von zwei sehr unterschiedlichen Männern,
+            die beide auf ihre Weise die Welt vermessen wollen. Alexander von Humboldt reist durch die Urwälder
+            Südamerikas, besteigt Vulkane und kriecht in Höhlen, während Carl Friedrich Gauß Göttingen kaum verlässt
+            und die Welt mit Zahlen und Formeln erfasst. Der Roman springt zwischen beiden Lebenswegen hin und her,
+            bis sich die beiden Forscher im Jahr 1828 in Berlin begegnen. Kehlmann schreibt in indirekter Rede, was
+            zunächst ungewohnt ist, dem Buch aber eine ironische Distanz gibt. Die beiden Helden sind genial und
+            zugleich kauzig, ihre Eigenheiten sorgen für viele komische Momente. Besonders gefallen haben mir die
+            Dialoge zwischen Humboldt und seinem Begleiter Bonpland, der die Strapazen der Reise mit wachsender
+            Verzweiflung erträgt. Wer historische Romane mit Humor mag, sollte dieses Buch unbedingt lesen.
+            """
+        private val OTHER_REVIEW = """
+            In Der Schwarm von Frank Schätzing wehrt sich das Meer gegen die Menschen. Wale greifen Boote an,
+            Würmer zersetzen Methanhydrat am Kontinentalhang und Krabben tragen giftige Algen an die Strände.
+            Ein Team von Wissenschaftlern um den Norweger Sigur Johanson sucht nach den Ursachen und stößt auf eine
+            unbekannte Intelligenz in der Tiefsee. Der Thriller ist mit fast tausend Seiten sehr lang und verliert
+            sich manchmal in wissenschaftlichen Erklärungen, die Spannung bleibt aber bis zum Ende hoch.
+            """
+    }
+
+    @Test
+    fun testSameTextSameFingerprint() {
+        assertEquals(SimHash.fingerprint(REVIEW), SimHash.fingerprint(REVIEW))
+    }
+
+    @Test
+    fun testCaseAndPunctuationAreIgnored() {
+        assertEquals(SimHash.fingerprint("Die Vermessung der Welt, ein Roman."), SimHash.fingerprint("die vermessung DER welt ein roman"))
+    }
+
+    @Test
+    fun testSmallChangeSmallDistance() {
+        val printView = "Drucken | Teilen " + REVIEW + " 3 Kommentare"
+        val distance = SimHash.distance(SimHash.fingerprint(REVIEW), SimHash.fingerprint(printView))
+        assertTrue("distance $distance", distance <= 3)
+    }
+
+    @Test
+    fun testDifferentTextLargeDistance() {
+        val distance = SimHash.distance(SimHash.fingerprint(REVIEW), SimHash.fingerprint(OTHER_REVIEW))
+        assertTrue("distance $distance", distance > 10)
+    }
+
+    @Test
+    fun testShortText() {
+        assertEquals(0L, SimHash.fingerprint(""))
+        assertEquals(0L, SimHash.fingerprint(" ... "))
+        assertNotEquals(0L, SimHash.fingerprint("Krimi"))
+        assertNotEquals(SimHash.fingerprint("Krimi"), SimHash.fingerprint("Roman"))
+    }
+
+    @Test
+    fun testDistance() {
+        assertEquals(0, SimHash.distance(0b1011L, 0b1011L))
+        assertEquals(2, SimHash.distance(0b1011L, 0b0001L))
+        assertEquals(64, SimHash.distance(0L, -1L))
+    }
+}
@@ -0,0 +1,58 @@
+package de.aditu.bookscan.elasticsearch
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.elasticsearch.action.ListenableActionFuture
+import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse
+import org.elasticsearch.action.search.MultiSearchRequestBuilder
+import org.elasticsearch.action.search.MultiSearchResponse
+import org.elasticsearch.action.search.SearchResponse
+import org.elasticsearch.client.Client
+import org.elasticsearch.search.SearchHit
+import org.elasticsearch.search.SearchHits
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.mockito.Mockito.RETURNS_DEEP_STUBS
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+
+class BlogArticleRepositoryTest {
+
+    @Test
+    fun testCountByBlogUrls() {
+        val repository = createRepository(
+                MultiSearchResponse.Item(response(12), null),
+                MultiSearchResponse.Item(response(0), null))
+
+        assertEquals(mapOf("https://a.de" to 12L, "https://b.de" to 0L), repository.countByBlogUrl(listOf("https://a.de", "https://b.de")))
+    }
+
+    @Test
+    fun testCountByBlogUrlsSkipsFailedSearches() {
+        val repository = createRepository(
+                MultiSearchResponse.Item(response(12), null),
+                MultiSearchResponse.Item(null, RuntimeException("rejected execution")),
+                MultiSearchResponse.Item(response(3), null))
+
+        assertEquals(mapOf("https://a.de" to 12L, "https://c.de" to 3L),
+                repository.countByBlogUrl(listOf("https://a.de", "https://b.de", "https://c.de")))
+    }
+
+    private fun createRepository(vararg items: MultiSearchResponse.Item): BlogArticleRepository {
+        val client = mock(Client::class.java, RETURNS_DEEP_STUBS)
+        // the index exists, the repository does not create it
+        @Suppress("UNCHECKED_CAST")
+        val exists = mock(ListenableActionFuture::class.java) as ListenableActionFuture<IndicesExistsResponse>
+        `when`(exists.actionGet()).thenReturn(IndicesExistsResponse(true))
+        `when`(client.admin().indices().prepareExists("bookscan").execute()).thenReturn(exists)
+        val multiSearch = mock(MultiSearchRequestBuilder::class.java)
+        `when`(client.prepareMultiSearch()).thenReturn(multiSearch)
+        `when`(multiSearch.get()).thenReturn(MultiSearchResponse(arrayOf(*items)))
+        return BlogArticleRepository(client, ObjectMapper())
+    }
+
+    private fun response(totalHits: Long): SearchResponse {
+        val response = mock(SearchResponse::class.java)
+        `when`(response.hits).thenReturn(SearchHits(arrayOf<SearchHit>(), totalHits, 0f))
+        return response
+    }
+}
@@ -0,0 +1,118 @@
+package de.aditu.bookscan.service
+
+import de.aditu.bookscan.model.UrlEntry
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+class CrawlSchedulerTest {
+
+    companion object {
+        private val SCAN_DURATION_IN_MS = 200L
+    }
+
+    @Test
+    fun testOneBlogPerHost() {
+        val entries = (1..4).map { UrlEntry("https://blog.de/$it") } + UrlEntry("https://other.de")
+        val concurrency = Concurrency()
+
+        CrawlScheduler(threads = 5).run(entries, concurrency.callback { CrawlScheduler.hostOf(it) })
+
+        assertEquals(1, concurrency.max("blog.de"))
+        assertEquals(1, concurrency.max("other.de"))
+        assertEquals(5, concurrency.calls.get())
+    }
+
+    @Test
+    fun testPlatformLimits() {
+        val entries = (1..10).map { UrlEntry("https://blog$it.blogspot.com") } +
+                (1..10).map { UrlEntry("https://blog$it.wordpress.com") } +
+                (1..20).map { UrlEntry("https://blog$it.de") } +
+                (1..3).map { UrlEntry("https://browser$it.de", simulateBrowser = true) }
+        val concurrency = Concurrency()
+
+        CrawlScheduler(threads = 40).run(entries, concurrency.callback { CrawlScheduler.platformOf(it).name })
+
+        assertEquals(6, concurrency.max(CrawlScheduler.Platform.BLOGSPOT.name))
+        assertEquals(6, concurrency.max(CrawlScheduler.Platform.WORDPRESS.name))
+        assertEquals(15, concurrency.max(CrawlScheduler.Platform.SELF_HOSTED.name))
+        assertEquals(1, concurrency.max(CrawlScheduler.Platform.BROWSER.name))
+        assertEquals(entries.size, concurrency.calls.get())
+    }
+
+    @Test
+    fun testPlatformOf() {
+        assertEquals(CrawlScheduler.Platform.BROWSER, CrawlScheduler.platformOf(UrlEntry("https://blog.blogspot.com", simulateBrowser = true)))
+        assertEquals(CrawlScheduler.Platform.BLOGSPOT, CrawlScheduler.platformOf(UrlEntry("https://blog.blogspot.com")))
+        assertEquals(CrawlScheduler.Platform.WORDPRESS, CrawlScheduler.platformOf(UrlEntry("https://blog.wordpress.com")))
+        assertEquals(CrawlScheduler.Platform.SELF_HOSTED, CrawlScheduler.platformOf(UrlEntry("https://blog.de")))
+        // the fetch url decides, not the url of urls.json
+        assertEquals(CrawlScheduler.Platform.BLOGSPOT, CrawlScheduler.platformOf(UrlEntry("https://blog.de", redirectedTo = "https://blog.blogspot.com")))
+    }
+
+    @Test
+    fun testHeldLeaseIsPostponed() {
+        val leases = mock(BlogLeases::class.java)
+        `when`(leases.claim("https://held.de")).thenReturn(BlogLeases.Claim.HELD, BlogLeases.Claim.HELD, BlogLeases.Claim.CLAIMED)
+        `when`(leases.claim("https://free.de")).thenReturn(BlogLeases.Claim.CLAIMED)
+        val started = Collections.synchronizedList(mutableListOf<String>())
+
+        CrawlScheduler(threads = 1, leases = leases).run(listOf(UrlEntry("https://held.de"), UrlEntry("https://free.de"))) { started.add(it.url) }
+
+        // the held blog goes back to the end of the queue and is scanned once its lease could be taken
+        assertEquals(listOf("https://free.de", "https://held.de"), started)
+        verify(leases).complete("https://held.de")
+        verify(leases).complete("https://free.de")
+    }
+
+    @Test
+    fun testDoneLeaseIsSkipped() {
+        val leases = mock(BlogLeases::class.java)
+        `when`(leases.claim("https://done.de")).thenReturn(BlogLeases.Claim.DONE)
+        `when`(leases.claim("https://free.de")).thenReturn(BlogLeases.Claim.CLAIMED)
+        val started = Collections.synchronizedList(mutableListOf<String>())
+
+        CrawlScheduler(threads = 2, leases = leases).run(listOf(UrlEntry("https://done.de"), UrlEntry("https://free.de"))) { started.add(it.url) }
+
+        assertEquals(listOf("https://free.de"), started)
+        verify(leases, never()).complete("https://done.de")
+        verify(leases, never()).release("https://done.de")
+    }
+
+    @Test
+    fun testFailedBlogReleasesLease() {
+        val leases = mock(BlogLeases::class.java)
+        `when`(leases.claim("https://failing.de")).thenReturn(BlogLeases.Claim.CLAIMED)
+
+        CrawlScheduler(threads = 1, leases = leases).run(listOf(UrlEntry("https://failing.de"))) { throw IllegalStateException("scan failed") }
+
+        verify(leases).release("https://failing.de")
+        verify(leases, never()).complete("https://failing.de")
+    }
+
+    /**
+     * counts the blogs running at the same time per group
+     */
+    private class Concurrency {
+        val calls = AtomicInteger()
+        private val running = ConcurrentHashMap<String, AtomicInteger>()
+        private val max = ConcurrentHashMap<String, AtomicInteger>()
+
+        fun callback(group: (urlEntry: UrlEntry) -> String): (urlEntry: UrlEntry) -> Unit = { urlEntry ->
+            val key = group(urlEntry)
+            val current = running.computeIfAbsent(key, { AtomicInteger() }).incrementAndGet()
+            max.computeIfAbsent(key, { AtomicInteger() }).accumulateAndGet(current, { a, b -> Math.max(a, b) })
+            Thread.sleep(SCAN_DURATION_IN_MS)
+            running[key]!!.decrementAndGet()
+            calls.incrementAndGet()
+        }
+
+        fun max(key: String) = max[key]?.get() ?: 0
+    }
+}
@@ -0,0 +1,71 @@
+package de.aditu.bookscan.service
+
+import de.aditu.bookscan.elasticsearch.BlogArticleRepository
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import org.mockito.Mockito.mock
+import org.mockito.stubbing.Answer
+
+class DuplicateIndexTest {
+
+    companion object {
+        private val FINGERPRINT = 0x0123456789abcdefL
+    }
+
+    @Test
+    fun testDisabled() {
+        val index = createIndex(enabled = false)
+        assertNull(index.addOrFindDuplicate("https://blog.de/a/", FINGERPRINT))
+        assertNull(index.addOrFindDuplicate("https://blog.de/b/", FINGERPRINT))
+    }
+
+    @Test
+    fun testNearDuplicate() {
+        val index = createIndex()
+        assertNull(index.addOrFindDuplicate("https://blog.de/a/", FINGERPRINT))
+        assertEquals("https://blog.de/a/", index.addOrFindDuplicate("https://blog.de/a/print/", FINGERPRINT))
+        // three bits differ in three different bands
+        assertEquals("https://blog.de/a/", index.addOrFindDuplicate("https://m.blog.de/a/", FINGERPRINT xor 0x0000_0001_0001_0001L))
+    }
+
+    @Test
+    fun testDistantFingerprintIsNew() {
+        val index = createIndex()
+        // shares three bands, but four bits differ
+        val distant = FINGERPRINT xor 0xfL
+        assertNull(index.addOrFindDuplicate("https://blog.de/a/", FINGERPRINT))
+        assertNull(index.addOrFindDuplicate("https://blog.de/b/", distant))
+        assertEquals("https://blog.de/b/", index.addOrFindDuplicate("https://blog.de/c/", distant))
+    }
+
+    @Test
+    fun testSameUrlIsNoDuplicate() {
+        val index = createIndex()
+        assertNull(index.addOrFindDuplicate("https://blog.de/a/", FINGERPRINT))
+        // a rescan of the same article
+        assertNull(index.addOrFindDuplicate("https://blog.de/a/", FINGERPRINT))
+        assertNull(index.addOrFindDuplicate("https://blog.de/a/", FINGERPRINT xor 1L))
+    }
+
+    @Test
+    fun testSavedFingerprintsAreLoaded() {
+        // the repository streams the fingerprints of the saved articles into the callback
+        val repository = mock(BlogArticleRepository::class.java, Answer<Any?> {
+            if (it.method.name == "findAllSimhashes") {
+                @Suppress("UNCHECKED_CAST")
+                (it.arguments[0] as (String, Long) -> Unit)("https://saved.de/a/", FINGERPRINT)
+            }
+            null
+        })
+        val index = createIndex(repository = repository)
+
+        assertEquals("https://saved.de/a/", index.addOrFindDuplicate("https://blog.de/a/", FINGERPRINT))
+    }
+
+    private fun createIndex(enabled: Boolean = true, repository: BlogArticleRepository = mock(BlogArticleRepository::class.java)): DuplicateIndex {
+        val index = DuplicateIndex(repository, enabled = enabled, maxDistance = 3)
+        index.start()
+        return index
+    }
+}
@@ -0,0 +1,91 @@
+package de.aditu.bookscan.service
+
+import de.aditu.bookscan.model.UrlEntry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class PreScanCacheTest {
+
+    companion object {
+        private val TTL_IN_MS = 60000L
+        private val RESULTS = listOf(BlogPreScan.PreScanResult("https://blog.de/a/", listOf(BlogPreScan.PreScanResultType.SUCCESS)))
+    }
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun testSuccessIsReused() {
+        val file = File(folder.root, "prescan-cache.jsonl")
+        val urlEntry = UrlEntry("https://blog.de", articleSelector = ".entry")
+        val cache = PreScanCache(file, TTL_IN_MS)
+        cache.put(urlEntry, true, RESULTS)
+        cache.close()
+
+        val entry = PreScanCache(file, TTL_IN_MS).get(urlEntry)
+        assertNotNull(entry)
+        assertEquals(RESULTS, entry!!.results)
+    }
+
+    @Test
+    fun testFailureIsNotReused() {
+        val file = File(folder.root, "prescan-cache.jsonl")
+        val urlEntry = UrlEntry("https://blog.de")
+        val cache = PreScanCache(file, TTL_IN_MS)
+        cache.put(urlEntry, false, RESULTS)
+
+        assertNull(cache.get(urlEntry))
+    }
+
+    @Test
+    fun testChangedUrlEntryIsScannedAgain() {
+        val file = File(folder.root, "prescan-cache.jsonl")
+        val cache = PreScanCache(file, TTL_IN_MS)
+        cache.put(UrlEntry("https://blog.de", articleSelector = ".entry"), true, RESULTS)
+
+        assertNull(cache.get(UrlEntry("https://blog.de", articleSelector = ".post")))
+        // the redirect of the preflight is no change of the entry
+        assertNotNull(cache.get(UrlEntry("https://blog.de", articleSelector = ".entry", redirectedTo = "https://www.blog.de/")))
+    }
+
+    @Test
+    fun testExpiredEntryIsScannedAgain() {
+        val file = File(folder.root, "prescan-cache.jsonl")
+        val urlEntry = UrlEntry("https://blog.de")
+        val cache = PreScanCache(file, -1)
+        cache.put(urlEntry, true, RESULTS)
+
+        assertNull(cache.get(urlEntry))
+    }
+
+    @Test
+    fun testLastEntryWinsAndFileIsCompacted() {
+        val file = File(folder.root, "prescan-cache.jsonl")
+        val urlEntry = UrlEntry("https://blog.de")
+        val cache = PreScanCache(file, TTL_IN_MS)
+        cache.put(urlEntry, true, RESULTS)
+        cache.put(urlEntry, false, RESULTS)
+        cache.close()
+
+        val reopened = PreScanCache(file, TTL_IN_MS)
+        assertNull(reopened.get(urlEntry))
+        assertEquals(1, file.readLines().size)
+    }
+
+    @Test
+    fun testIncompleteLineIsSkipped() {
+        val file = File(folder.root, "prescan-cache.jsonl")
+        val urlEntry = UrlEntry("https://blog.de")
+        val cache = PreScanCache(file, TTL_IN_MS)
+        cache.put(urlEntry, true, RESULTS)
+        cache.close()
+        file.appendText("{\"url\":\"https://other.de\",\"ha")
+
+        assertNotNull(PreScanCache(file, TTL_IN_MS).get(urlEntry))
+    }
+}
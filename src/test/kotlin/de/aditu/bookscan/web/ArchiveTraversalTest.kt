@@ -0,0 +1,129 @@
+package de.aditu.bookscan.web
+
+import de.aditu.bookscan.model.UrlEntry
+import de.aditu.bookscan.telemetry.CrawlTelemetry
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito.mock
+import org.mockito.stubbing.Answer
+import reactor.core.publisher.Mono
+
+class ArchiveTraversalTest {
+
+    private val webSiteParser = WebSiteParser(CrawlTelemetry(SimpleMeterRegistry()))
+
+    @Test
+    fun testMonthArchives() {
+        val traversal = createTraversal(mapOf(
+                "https://blog.de" to page(archives = listOf("/2018/03/", "/2018/02/")),
+                "https://blog.de/2018/03/" to page(articles = listOf("/2018/03/rezension-b/", "/2018/03/rezension-a/")),
+                "https://blog.de/2018/02/" to page(articles = listOf("/2018/02/rezension-c/"))))
+
+        val result = traversal.traverse(UrlEntry("https://blog.de/"))!!
+
+        assertEquals(listOf("https://blog.de/2018/03/rezension-b/", "https://blog.de/2018/03/rezension-a/", "https://blog.de/2018/02/rezension-c/"), result.urls)
+        // the month before the oldest linked month has no posts
+        assertTrue(result.complete)
+    }
+
+    @Test
+    fun testMonthArchivesWithOlderPosts() {
+        // the archive widget shows only the recent months
+        val traversal = createTraversal(mapOf(
+                "https://blog.de" to page(archives = listOf("/2018/03/")),
+                "https://blog.de/2018/03/" to page(articles = listOf("/2018/03/rezension-a/")),
+                "https://blog.de/2018/02/" to page(articles = listOf("/2018/02/rezension-b/"))))
+
+        val result = traversal.traverse(UrlEntry("https://blog.de"))!!
+
+        assertEquals(listOf("https://blog.de/2018/03/rezension-a/", "https://blog.de/2018/02/rezension-b/"), result.urls)
+        assertFalse(result.complete)
+    }
+
+    @Test
+    fun testMonthArchiveWithPages() {
+        val traversal = createTraversal(mapOf(
+                "https://blog.de" to page(archives = listOf("/2018/03/")),
+                "https://blog.de/2018/03/" to page(articles = listOf("/2018/03/rezension-a/"), next = "/2018/03/page/2/"),
+                "https://blog.de/2018/03/page/2/" to page(articles = listOf("/2018/03/rezension-b/"))))
+
+        val result = traversal.traverse(UrlEntry("https://blog.de"))!!
+
+        assertEquals(listOf("https://blog.de/2018/03/rezension-a/", "https://blog.de/2018/03/rezension-b/"), result.urls)
+        assertTrue(result.complete)
+    }
+
+    @Test
+    fun testPaginatedStartPage() {
+        val traversal = createTraversal(mapOf(
+                "https://blog.de" to page(articles = listOf("/rezension-c/", "/rezension-b/"), next = "/page/2/"),
+                "https://blog.de/page/2/" to page(articles = listOf("/rezension-a/"))))
+
+        val result = traversal.traverse(UrlEntry("https://blog.de"))!!
+
+        assertEquals(listOf("https://blog.de/rezension-c/", "https://blog.de/rezension-b/", "https://blog.de/rezension-a/"), result.urls)
+        assertTrue(result.complete)
+    }
+
+    @Test
+    fun testPaginationStopsWithoutNewArticles() {
+        // the third page repeats the articles of the second page
+        val traversal = createTraversal(mapOf(
+                "https://blog.de" to page(articles = listOf("/rezension-b/"), next = "/page/2/"),
+                "https://blog.de/page/2/" to page(articles = listOf("/rezension-a/"), next = "/page/3/"),
+                "https://blog.de/page/3/" to page(articles = listOf("/rezension-a/"), next = "/page/4/")))
+
+        val result = traversal.traverse(UrlEntry("https://blog.de"))!!
+
+        assertEquals(listOf("https://blog.de/rezension-b/", "https://blog.de/rezension-a/"), result.urls)
+        assertFalse(result.complete)
+    }
+
+    @Test
+    fun testIgnoredUrlsAreSkipped() {
+        val traversal = createTraversal(mapOf(
+                "https://blog.de" to page(articles = listOf("/rezension-a/", "/gewinnspiel-b/"), next = "/page/2/"),
+                "https://blog.de/page/2/" to page(articles = listOf("/rezension-c/"))))
+
+        val result = traversal.traverse(UrlEntry("https://blog.de", ignoreUrl = listOf("gewinnspiel")))!!
+
+        assertEquals(listOf("https://blog.de/rezension-a/", "https://blog.de/rezension-c/"), result.urls)
+    }
+
+    @Test
+    fun testNoArchives() {
+        val traversal = createTraversal(mapOf(
+                "https://blog.de" to page(articles = listOf("/rezension-a/"))))
+
+        assertNull(traversal.traverse(UrlEntry("https://blog.de")))
+        assertNull(traversal.traverse(UrlEntry("https://unavailable.de")))
+    }
+
+    @Test
+    fun testDisabled() {
+        val traversal = createTraversal(mapOf(
+                "https://blog.de" to page(articles = listOf("/rezension-b/"), next = "/page/2/"),
+                "https://blog.de/page/2/" to page(articles = listOf("/rezension-a/"))), enabled = false)
+
+        assertNull(traversal.traverse(UrlEntry("https://blog.de")))
+    }
+
+    // the page loader answers from the given pages, unknown urls have no content
+    private fun createTraversal(pages: Map<String, String>, enabled: Boolean = true): ArchiveTraversal {
+        val pageLoader = mock(PageLoader::class.java, Answer<Any?> {
+            if (it.method.name == "load") Mono.justOrEmpty(pages[it.arguments[0] as String]) else null
+        })
+        return ArchiveTraversal(pageLoader, webSiteParser, enabled)
+    }
+
+    private fun page(articles: List<String> = listOf(), archives: List<String> = listOf(), next: String? = null): String {
+        val posts = articles.joinToString("\n") { "<article><h2 class=\"entry-title\"><a href=\"$it\">Rezension</a></h2></article>" }
+        val widget = archives.joinToString("\n") { "<li><a href=\"$it\">Archiv</a></li>" }
+        val pager = if (next != null) "<a class=\"next\" href=\"$next\">Ältere Beiträge</a>" else ""
+        return "<html><body>$posts<ul class=\"archive\">$widget</ul>$pager</body></html>"
+    }
+}
@@ -0,0 +1,97 @@
+package de.aditu.bookscan.web
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class CrawlFrontierTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun testResume() {
+        val file = File(folder.root, "frontier.log")
+        val frontier = CrawlFrontier(file)
+        frontier.discovered("https://blog.de/")
+        frontier.discovered("https://blog.de/a/")
+        frontier.discovered("https://blog.de/b/")
+        frontier.completed("https://blog.de/")
+        frontier.completed("https://blog.de/a/")
+
+        // the interrupted scan continues with the urls which were not completed
+        val resumed = CrawlFrontier(file)
+        assertEquals(listOf("https://blog.de/b/"), resumed.pending())
+        assertEquals(setOf("https://blog.de/", "https://blog.de/a/"), resumed.completed())
+    }
+
+    @Test
+    fun testCompletedUrlIsNotDiscoveredAgain() {
+        val file = File(folder.root, "frontier.log")
+        val frontier = CrawlFrontier(file)
+        frontier.discovered("https://blog.de/a/")
+        frontier.completed("https://blog.de/a/")
+        frontier.discovered("https://blog.de/a/")
+
+        assertEquals(listOf<String>(), frontier.pending())
+        assertEquals(listOf<String>(), CrawlFrontier(file).pending())
+    }
+
+    @Test
+    fun testAwaitSaveKeepsPagePending() {
+        val file = File(folder.root, "frontier.log")
+        val frontier = CrawlFrontier(file)
+        frontier.discovered("https://blog.de/article/")
+        frontier.awaitSave("https://blog.de/article/")
+        frontier.completed("https://blog.de/article/")
+
+        // a crash before the article was saved fetches the page again
+        assertEquals(listOf("https://blog.de/article/"), frontier.pending())
+        assertEquals(listOf("https://blog.de/article/"), CrawlFrontier(file).pending())
+
+        frontier.saved("https://blog.de/article/")
+        assertEquals(listOf<String>(), frontier.pending())
+        assertEquals(setOf("https://blog.de/article/"), CrawlFrontier(file).completed())
+    }
+
+    @Test
+    fun testFinishDeletesLog() {
+        val file = File(folder.root, "frontier.log")
+        val frontier = CrawlFrontier(file)
+        frontier.discovered("https://blog.de/")
+        frontier.finish()
+
+        assertFalse(file.exists())
+        assertEquals(listOf<String>(), CrawlFrontier(file).pending())
+    }
+
+    @Test
+    fun testCompaction() {
+        val file = File(folder.root, "frontier.log")
+        val frontier = CrawlFrontier(file)
+        (1..10_001).forEach {
+            frontier.discovered("https://blog.de/$it/")
+            frontier.completed("https://blog.de/$it/")
+        }
+        frontier.discovered("https://blog.de/pending/")
+
+        // one line per url after the log was compacted
+        assertTrue(file.readLines().size < 10_010)
+        val resumed = CrawlFrontier(file)
+        assertEquals(listOf("https://blog.de/pending/"), resumed.pending())
+        assertEquals(10_001, resumed.completed().size)
+    }
+
+    @Test
+    fun testOpenByBlogUrl() {
+        val directory = folder.root.path
+        CrawlFrontier.open(directory, "https://blog.de/").discovered("https://blog.de/a/")
+
+        assertEquals(listOf("https://blog.de/a/"), CrawlFrontier.open(directory, "HTTPS://Blog.DE:443").pending())
+        assertEquals(listOf<String>(), CrawlFrontier.open(directory, "https://other.de/").pending())
+    }
+}
@@ -0,0 +1,131 @@
+package de.aditu.bookscan.web
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.springframework.http.HttpStatus
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+import java.time.format.DateTimeFormatter
+
+class HostRateControllerTest {
+
+    companion object {
+        private val TOLERANCE_IN_MS = 50.0
+    }
+
+    @Test
+    fun testInitialRate() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        assertEquals(0L, controller.reserve("https://blog.de/1"))
+        assertEquals(500.0, controller.reserve("https://blog.de/2").toDouble(), TOLERANCE_IN_MS)
+    }
+
+    @Test
+    fun testRatePerHost() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        controller.reserve("https://blog.de/1")
+        assertEquals(0L, controller.reserve("https://other.de/1"))
+    }
+
+    @Test
+    fun testNoDelayBetweenRequests() {
+        val controller = HostRateController(delayBetweenRequests = false)
+        assertEquals(0L, controller.reserve("https://blog.de/1"))
+        assertEquals(0L, controller.reserve("https://blog.de/2"))
+    }
+
+    @Test
+    fun testAdditiveIncrease() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        repeat(10) { controller.onResponse("https://blog.de", HttpStatus.OK, 100) }
+        // 2 + 10 * 0.1 requests per second
+        assertEquals(1000.0 / 3, interval(controller, "https://blog.de"), TOLERANCE_IN_MS)
+    }
+
+    @Test
+    fun testMultiplicativeDecrease() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        controller.onResponse("https://blog.de", HttpStatus.TOO_MANY_REQUESTS, 100)
+        assertEquals(1000.0, interval(controller, "https://blog.de"), TOLERANCE_IN_MS)
+    }
+
+    @Test
+    fun testDecreaseOncePerCooldown() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        controller.onResponse("https://blog.de", HttpStatus.SERVICE_UNAVAILABLE, 100)
+        controller.onFailure("https://blog.de")
+        controller.onResponse("https://blog.de", HttpStatus.TOO_MANY_REQUESTS, 100)
+        assertEquals(1000.0, interval(controller, "https://blog.de"), TOLERANCE_IN_MS)
+    }
+
+    @Test
+    fun testSlowResponseDecreases() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        controller.onResponse("https://blog.de", HttpStatus.OK, 500)
+        controller.onResponse("https://blog.de", HttpStatus.OK, 5000)
+        // increased to 2.1 by the first response, halved by the slow one
+        assertEquals(1000.0 / 1.05, interval(controller, "https://blog.de"), TOLERANCE_IN_MS)
+    }
+
+    @Test
+    fun testClientErrorDoesNotDecrease() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        controller.onResponse("https://blog.de", HttpStatus.NOT_FOUND, 100)
+        assertEquals(1000.0 / 2.1, interval(controller, "https://blog.de"), TOLERANCE_IN_MS)
+    }
+
+    @Test
+    fun testRetryAfterSeconds() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        controller.onResponse("https://blog.de/1", HttpStatus.TOO_MANY_REQUESTS, 100, "5")
+
+        assertTrue(controller.isBlocked("blog.de"))
+        assertFalse(controller.isBlocked("other.de"))
+        assertEquals(5000.0, controller.reserve("https://blog.de/2").toDouble(), TOLERANCE_IN_MS)
+        assertTrue(controller.backoff("https://blog.de/2", 1) > 5000 - TOLERANCE_IN_MS)
+    }
+
+    @Test
+    fun testRetryAfterDate() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        val date = ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(10).format(DateTimeFormatter.RFC_1123_DATE_TIME)
+        controller.onResponse("https://blog.de", HttpStatus.SERVICE_UNAVAILABLE, 100, date)
+
+        assertTrue(controller.isBlocked("blog.de"))
+        // the http date has no milliseconds
+        assertTrue(controller.reserve("https://blog.de") in 9000L..10000L)
+    }
+
+    @Test
+    fun testInvalidRetryAfterIsIgnored() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        controller.onResponse("https://blog.de", HttpStatus.TOO_MANY_REQUESTS, 100, "tomorrow")
+        assertFalse(controller.isBlocked("blog.de"))
+    }
+
+    @Test
+    fun testRetryAfterIsCapped() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        controller.onResponse("https://blog.de", HttpStatus.TOO_MANY_REQUESTS, 100, "86400")
+        assertEquals(120000.0, controller.reserve("https://blog.de").toDouble(), TOLERANCE_IN_MS)
+    }
+
+    @Test
+    fun testExponentialBackoffWithJitter() {
+        val controller = HostRateController(delayBetweenRequests = true)
+        repeat(20) {
+            assertTrue(controller.backoff("https://blog.de", 1) in 500L..1000L)
+            assertTrue(controller.backoff("https://blog.de", 3) in 2000L..4000L)
+            assertTrue(controller.backoff("https://blog.de", 30) in 60000L..120000L)
+        }
+    }
+
+    // the second of two requests waits for one interval of the current rate
+    private fun interval(controller: HostRateController, url: String): Double {
+        val first = controller.reserve(url)
+        val second = controller.reserve(url)
+        return (second - first).toDouble()
+    }
+}
@@ -0,0 +1,47 @@
+package de.aditu.bookscan.web
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class HrefTokenizerTest {
+
+    @Test
+    fun testAttributes() {
+        val html = """<p><a href="/a">a</a> <A HREF='/b'>b</A> <a class=link href=/c>c</a> <a title="x > y" href="/d">d</a></p>"""
+        assertEquals(listOf("/a", "/b", "/c", "/d"), HrefTokenizer.hrefs(html))
+    }
+
+    @Test
+    fun testEntities() {
+        assertEquals(listOf("/e?x=1&y=2"), HrefTokenizer.hrefs("""<a href="/e?x=1&amp;y=2">e</a>"""))
+    }
+
+    @Test
+    fun testOtherTags() {
+        val html = """<abbr href="/a">a</abbr><article><link href="/b"><area href="/c"></article><a>no href</a>"""
+        assertEquals(listOf<String>(), HrefTokenizer.hrefs(html))
+    }
+
+    @Test
+    fun testComments() {
+        assertEquals(listOf("/b"), HrefTokenizer.hrefs("""<!-- <a href="/a">a</a> --><a href="/b">b</a>"""))
+        assertEquals(listOf<String>(), HrefTokenizer.hrefs("""<!-- <a href="/a">a</a>"""))
+    }
+
+    @Test
+    fun testScriptAndStyle() {
+        val html = """
+            <script>document.write('<a href="/a">a</a>');</script>
+            <SCRIPT type="text/javascript">var x = "<a href='/b'>";</SCRIPT>
+            <style>/* <a href="/c"> */</style>
+            <a href="/d">d</a>
+            <scripted><a href="/e">e</a></scripted>
+            """
+        assertEquals(listOf("/d", "/e"), HrefTokenizer.hrefs(html))
+    }
+
+    @Test
+    fun testUnclosedScript() {
+        assertEquals(listOf("/a"), HrefTokenizer.hrefs("""<a href="/a">a</a><script>var x = '<a href="/b">'"""))
+    }
+}
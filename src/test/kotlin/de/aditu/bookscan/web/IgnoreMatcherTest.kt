@@ -0,0 +1,83 @@
+package de.aditu.bookscan.web
+
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class IgnoreMatcherTest {
+
+    @Test
+    fun testEmptyIgnoreList() {
+        assertFalse(IgnoreMatcher(listOf()).matches("https://blog.de/2018/03/artikel/"))
+        assertFalse(IgnoreMatcher(listOf("")).matches("https://blog.de/2018/03/artikel/"))
+    }
+
+    @Test
+    fun testSubstringIsCaseInsensitive() {
+        val matcher = IgnoreMatcher(listOf("tag/", "Schlagwort/"))
+        assertTrue(matcher.matches("https://blog.de/tag/krimi/"))
+        assertTrue(matcher.matches("https://blog.de/TAG/krimi/"))
+        assertTrue(matcher.matches("https://blog.de/schlagwort/krimi/"))
+        assertFalse(matcher.matches("https://blog.de/2018/03/krimi/"))
+    }
+
+    @Test
+    fun testSubstringMatchesQuery() {
+        val matcher = IgnoreMatcher(listOf("tag=", "replytocom"))
+        assertTrue(matcher.matches("https://blog.de/?tag=krimi"))
+        assertTrue(matcher.matches("https://blog.de/2018/03/artikel/?replytocom=12"))
+        assertFalse(matcher.matches("https://blog.de/?cat=krimi"))
+    }
+
+    @Test
+    fun testOverlappingPatterns() {
+        val matcher = IgnoreMatcher(listOf("he", "she", "his", "hers"))
+        assertTrue(matcher.matches("https://blog.de/ushers"))
+        assertTrue(matcher.matches("https://blog.de/ahis"))
+        assertFalse(matcher.matches("https://blog.de/hi"))
+    }
+
+    @Test
+    fun testPatternReachedByFailureLink() {
+        // the text leaves the longer pattern at "xabc", the shorter pattern "bc" ends there as a suffix
+        val matcher = IgnoreMatcher(listOf("xabcx", "bc"))
+        assertTrue(matcher.matches("https://blog.de/xabcy"))
+        assertFalse(matcher.matches("https://blog.de/xab"))
+
+        val prefixes = IgnoreMatcher(listOf("aab"))
+        assertTrue(prefixes.matches("https://blog.de/aaab"))
+    }
+
+    @Test
+    fun testFullUrlMatchesCanonicalKey() {
+        val matcher = IgnoreMatcher(listOf("https://www.blog.de/2018/03/artikel/"))
+        assertTrue(matcher.matches("https://www.blog.de/2018/03/artikel/"))
+        assertTrue(matcher.matches("http://blog.de/2018/03/artikel"))
+        assertTrue(matcher.matches("https://blog.de:443/2018/03/artikel/#comments"))
+        assertTrue(matcher.matches("https://blog.de/2018/03/artikel/?utm_source=feed"))
+    }
+
+    @Test
+    fun testFullUrlIgnoresQuery() {
+        val matcher = IgnoreMatcher(listOf("https://blog.de/2018/03/artikel/"))
+        assertTrue(matcher.matches("https://blog.de/2018/03/artikel/?share=twitter"))
+        assertTrue(matcher.matches("https://blog.de/2018/03/artikel/?page=2"))
+    }
+
+    @Test
+    fun testFullUrlDoesNotMatchSubPages() {
+        // before the matcher a full url was a substring rule and also ignored all pages below it
+        val matcher = IgnoreMatcher(listOf("https://blog.de/2018/03/artikel/"))
+        assertFalse(matcher.matches("https://blog.de/2018/03/artikel/comment-page-2/"))
+        assertFalse(matcher.matches("https://blog.de/2018/03/artikel-2/"))
+        assertFalse(matcher.matches("https://other.de/2018/03/artikel/"))
+    }
+
+    @Test
+    fun testFullUrlAndSubstringTogether() {
+        val matcher = IgnoreMatcher(listOf("https://blog.de/impressum/", "/feed"))
+        assertTrue(matcher.matches("https://blog.de/impressum"))
+        assertTrue(matcher.matches("https://blog.de/2018/03/artikel/feed/"))
+        assertFalse(matcher.matches("https://blog.de/2018/03/artikel/"))
+    }
+}
@@ -0,0 +1,63 @@
+package de.aditu.bookscan.web
+
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class NonHtmlPatternsTest {
+
+    @Test
+    fun testLearnedAfterThreeResponses() {
+        val patterns = NonHtmlPatterns()
+        patterns.nonHtml("https://blog.de/wp-content/uploads/2018/03/cover1.webp", "image/webp")
+        patterns.nonHtml("https://blog.de/wp-content/uploads/2018/03/cover2.webp", "image/webp")
+        assertFalse(patterns.isNonHtml("https://blog.de/wp-content/uploads/2018/04/cover3.webp"))
+
+        patterns.nonHtml("https://blog.de/wp-content/uploads/2018/03/cover3.webp", "image/webp")
+        assertTrue(patterns.isNonHtml("https://blog.de/wp-content/uploads/2019/01/cover4.webp"))
+    }
+
+    @Test
+    fun testHtmlPageKeepsPatternAllowed() {
+        val patterns = NonHtmlPatterns()
+        patterns.html("https://blog.de/downloads/leseprobe.php")
+        repeat(5) { patterns.nonHtml("https://blog.de/downloads/datei$it.php", "application/pdf") }
+        assertFalse(patterns.isNonHtml("https://blog.de/downloads/rezension.php"))
+    }
+
+    @Test
+    fun testPatternIsPerHostExtensionAndQuery() {
+        val patterns = NonHtmlPatterns()
+        repeat(3) { patterns.nonHtml("https://blog.de/files/buch$it.pdf", "application/pdf") }
+
+        assertTrue(patterns.isNonHtml("https://BLOG.de/files/neu.PDF"))
+        assertFalse(patterns.isNonHtml("https://other.de/files/neu.pdf"))
+        assertFalse(patterns.isNonHtml("https://blog.de/files/neu.html"))
+        assertFalse(patterns.isNonHtml("https://blog.de/files/neu.pdf?download=1"))
+        assertFalse(patterns.isNonHtml("https://blog.de/artikel/neu.pdf"))
+    }
+
+    @Test
+    fun testDigitsOfFirstSegmentAreIgnored() {
+        val patterns = NonHtmlPatterns()
+        repeat(3) { patterns.nonHtml("https://blog.de/2018/feed$it.xml", "application/rss+xml") }
+        assertTrue(patterns.isNonHtml("https://blog.de/2019/feed.xml"))
+    }
+
+    @Test
+    fun testArticlesWithoutExtensionAreNotAffected() {
+        val patterns = NonHtmlPatterns()
+        // single segment urls share the pattern without first segment
+        repeat(3) { patterns.nonHtml("https://blog.de/datei$it.zip", "application/zip") }
+        assertFalse(patterns.isNonHtml("https://blog.de/rezension-die-vermessung-der-welt/"))
+        assertFalse(patterns.isNonHtml("https://blog.de/2018/03/rezension/"))
+    }
+
+    @Test
+    fun testInvalidUrl() {
+        val patterns = NonHtmlPatterns()
+        repeat(3) { patterns.nonHtml("https://blog.de/a b.pdf", "application/pdf") }
+        assertTrue(patterns.isNonHtml("https://blog.de/a b.pdf"))
+        assertFalse(patterns.isNonHtml("https://blog.de/c d.pdf"))
+    }
+}
@@ -0,0 +1,88 @@
+package de.aditu.bookscan.web
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class PageArchiveTest {
+
+    companion object {
+        private val SEGMENT_SIZE = 536870912L
+    }
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun testRecordAndReplay() {
+        val path = folder.root.path
+        val recorder = PageArchive("record", path, SEGMENT_SIZE)
+        recorder.record("https://blog.de/a/", "<html><body>Rezension: Die Vermessung der Welt</body></html>")
+        recorder.record("https://blog.de/b/", "<html><body>Ümlaute und 日本語</body></html>")
+        recorder.close()
+
+        val replay = PageArchive("replay", path, SEGMENT_SIZE)
+        assertTrue(replay.replaying)
+        assertEquals("<html><body>Rezension: Die Vermessung der Welt</body></html>", replay.read("https://blog.de/a/"))
+        assertEquals("<html><body>Ümlaute und 日本語</body></html>", replay.read("https://blog.de/b/"))
+        assertNull(replay.read("https://blog.de/c/"))
+    }
+
+    @Test
+    fun testReplayByCanonicalUrl() {
+        val path = folder.root.path
+        val recorder = PageArchive("record", path, SEGMENT_SIZE)
+        recorder.record("https://blog.de/a/?utm_source=feed", "article")
+        recorder.close()
+
+        assertEquals("article", PageArchive("replay", path, SEGMENT_SIZE).read("https://blog.de/a/#comments"))
+    }
+
+    @Test
+    fun testLatestRecordWins() {
+        val path = folder.root.path
+        val recorder = PageArchive("record", path, SEGMENT_SIZE)
+        recorder.record("https://blog.de/a/", "first")
+        recorder.record("https://blog.de/a/", "second")
+        recorder.close()
+
+        assertEquals("second", PageArchive("replay", path, SEGMENT_SIZE).read("https://blog.de/a/"))
+    }
+
+    @Test
+    fun testSegmentRotation() {
+        val path = folder.root.path
+        val recorder = PageArchive("record", path, 1)
+        recorder.record("https://blog.de/a/", "a")
+        recorder.record("https://blog.de/b/", "b")
+        recorder.close()
+
+        // a second recording continues with a new segment and keeps the pages of the first one
+        val next = PageArchive("record", path, SEGMENT_SIZE)
+        next.record("https://blog.de/c/", "c")
+        next.close()
+
+        assertEquals(3, folder.root.listFiles { file: File -> file.name.endsWith(".warc.gz") }.size)
+        val replay = PageArchive("replay", path, SEGMENT_SIZE)
+        assertEquals("a", replay.read("https://blog.de/a/"))
+        assertEquals("b", replay.read("https://blog.de/b/"))
+        assertEquals("c", replay.read("https://blog.de/c/"))
+    }
+
+    @Test
+    fun testOffDoesNotRecord() {
+        val directory = File(folder.root, "archive")
+        val archive = PageArchive("off", directory.path, SEGMENT_SIZE)
+        archive.record("https://blog.de/a/", "a")
+        archive.close()
+
+        assertFalse(archive.recording)
+        assertFalse(archive.replaying)
+        assertFalse(directory.exists())
+    }
+}
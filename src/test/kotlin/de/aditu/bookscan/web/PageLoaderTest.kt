@@ -0,0 +1,48 @@
+package de.aditu.bookscan.web
+
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpStatus
+import org.springframework.web.reactive.function.client.WebClientResponseException
+import java.io.IOException
+import java.net.ConnectException
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.TimeoutException
+
+class PageLoaderTest {
+
+    @Test
+    fun testRetryableStatus() {
+        assertTrue(PageLoader.isRetryable(responseError(HttpStatus.TOO_MANY_REQUESTS)))
+        assertTrue(PageLoader.isRetryable(responseError(HttpStatus.INTERNAL_SERVER_ERROR)))
+        assertTrue(PageLoader.isRetryable(responseError(HttpStatus.BAD_GATEWAY)))
+        assertTrue(PageLoader.isRetryable(responseError(HttpStatus.SERVICE_UNAVAILABLE)))
+    }
+
+    @Test
+    fun testClientErrorsAreNotRetried() {
+        assertFalse(PageLoader.isRetryable(responseError(HttpStatus.NOT_FOUND)))
+        assertFalse(PageLoader.isRetryable(responseError(HttpStatus.GONE)))
+        assertFalse(PageLoader.isRetryable(responseError(HttpStatus.FORBIDDEN)))
+        assertFalse(PageLoader.isRetryable(responseError(HttpStatus.BAD_REQUEST)))
+    }
+
+    @Test
+    fun testIoErrorsAreRetried() {
+        assertTrue(PageLoader.isRetryable(IOException("connection reset by peer")))
+        assertTrue(PageLoader.isRetryable(ConnectException("connection refused")))
+        assertTrue(PageLoader.isRetryable(TimeoutException()))
+    }
+
+    @Test
+    fun testSkippedBodiesAreNotRetried() {
+        assertFalse(PageLoader.isRetryable(PageLoader.BodyTooLargeException(5242880)))
+        assertFalse(PageLoader.isRetryable(PageLoader.NotHtmlException("https://blog.de/file.pdf", "application/pdf")))
+    }
+
+    private fun responseError(status: HttpStatus) =
+            WebClientResponseException("ClientResponse has erroneous status code: ${status.value()}",
+                    status.value(), status.reasonPhrase, HttpHeaders(), ByteArray(0), StandardCharsets.UTF_8)
+}
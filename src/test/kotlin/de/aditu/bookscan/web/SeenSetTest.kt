@@ -0,0 +1,69 @@
+package de.aditu.bookscan.web
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class SeenSetTest {
+
+    @Test
+    fun testAdd() {
+        val seen = SeenSet()
+        assertTrue(seen.add("https://blog.de/artikel/"))
+        assertFalse(seen.add("https://blog.de/artikel/"))
+        assertTrue(seen.contains("https://blog.de/artikel/"))
+        assertFalse(seen.contains("https://blog.de/anderer-artikel/"))
+        assertEquals(1, seen.size())
+    }
+
+    @Test
+    fun testSameCanonicalKeyIsSeen() {
+        val seen = SeenSet()
+        assertTrue(seen.add("https://www.blog.de/artikel/"))
+        assertFalse(seen.add("http://blog.de/artikel"))
+        assertFalse(seen.add("https://blog.de/artikel/#comments"))
+        assertFalse(seen.add("https://blog.de/artikel/?utm_source=feed"))
+        assertTrue(seen.add("https://blog.de/artikel/?p=2"))
+        assertEquals(2, seen.size())
+    }
+
+    @Test
+    fun testResize() {
+        val seen = SeenSet(2)
+        val urls = (0 until 5000).map { "https://blog.de/2018/03/artikel-$it/" }
+        urls.forEach { assertTrue(seen.add(it)) }
+        assertEquals(urls.size, seen.size())
+        urls.forEach { assertTrue(seen.contains(it)) }
+        urls.forEach { assertFalse(seen.add(it)) }
+        assertEquals(urls.size, seen.size())
+        assertFalse(seen.contains("https://blog.de/2018/03/artikel-5000/"))
+    }
+
+    @Test
+    fun testCollidingSlots() {
+        // starting with two slots, urls share slots and are found by probing while the table grows
+        val seen = SeenSet(1)
+        val urls = (0 until 64).map { "https://blog.de/?p=$it" }
+        for ((index, url) in urls.withIndex()) {
+            assertTrue(seen.add(url))
+            urls.take(index + 1).forEach { assertTrue(seen.contains(it)) }
+            urls.drop(index + 1).forEach { assertFalse(seen.contains(it)) }
+        }
+        assertEquals(urls.size, seen.size())
+    }
+
+    @Test
+    fun testConcurrentAdd() {
+        val seen = SeenSet(2)
+        val added = AtomicInteger()
+        val threads = (0 until 8).map {
+            Thread { (0 until 1000).forEach { if (seen.add("https://blog.de/artikel-$it/")) added.incrementAndGet() } }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+        assertEquals(1000, added.get())
+        assertEquals(1000, seen.size())
+    }
+}
@@ -0,0 +1,74 @@
+package de.aditu.bookscan.web
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class UrlCanonicalizerTest {
+
+    @Test
+    fun testCanonicalizeSchemeAndHost() {
+        assertEquals("http://www.blog.de/Artikel/", UrlCanonicalizer.canonicalize("HTTP://WWW.Blog.DE/Artikel/"))
+        assertEquals("https://blog.de/", UrlCanonicalizer.canonicalize("https://blog.de"))
+        assertEquals("https://blog.de/artikel", UrlCanonicalizer.canonicalize("  https://blog.de/artikel  "))
+    }
+
+    @Test
+    fun testCanonicalizeDefaultPorts() {
+        assertEquals("http://blog.de/", UrlCanonicalizer.canonicalize("http://blog.de:80/"))
+        assertEquals("https://blog.de/", UrlCanonicalizer.canonicalize("https://blog.de:443/"))
+        assertEquals("http://blog.de:8080/", UrlCanonicalizer.canonicalize("http://blog.de:8080/"))
+        assertEquals("https://blog.de:80/", UrlCanonicalizer.canonicalize("https://blog.de:80/"))
+    }
+
+    @Test
+    fun testCanonicalizeQuery() {
+        assertEquals("https://blog.de/?a=1&b=2", UrlCanonicalizer.canonicalize("https://blog.de/?b=2&a=1"))
+        assertEquals("https://blog.de/?p=12", UrlCanonicalizer.canonicalize("https://blog.de/?p=12&utm_source=feed&UTM_Medium=rss"))
+        assertEquals("https://blog.de/artikel/", UrlCanonicalizer.canonicalize("https://blog.de/artikel/?fbclid=abc&gclid=def"))
+        assertEquals("https://blog.de/artikel/", UrlCanonicalizer.canonicalize("https://blog.de/artikel/?share=twitter&replytocom=5"))
+        assertEquals("https://blog.de/artikel/", UrlCanonicalizer.canonicalize("https://blog.de/artikel/?&"))
+    }
+
+    @Test
+    fun testCanonicalizeFragment() {
+        assertEquals("https://blog.de/artikel/", UrlCanonicalizer.canonicalize("https://blog.de/artikel/#comments"))
+        assertEquals("https://blog.de/artikel/?p=1", UrlCanonicalizer.canonicalize("https://blog.de/artikel/?p=1#more-1"))
+    }
+
+    @Test
+    fun testCanonicalizeKeepsTrailingSlashAndPathCase() {
+        assertEquals("https://blog.de/artikel/", UrlCanonicalizer.canonicalize("https://blog.de/artikel/"))
+        assertEquals("https://blog.de/artikel", UrlCanonicalizer.canonicalize("https://blog.de/artikel"))
+        assertEquals("https://blog.de/Artikel", UrlCanonicalizer.canonicalize("https://blog.de/Artikel"))
+    }
+
+    @Test
+    fun testCanonicalizeUnparsable() {
+        assertEquals("/artikel/", UrlCanonicalizer.canonicalize("/artikel/"))
+        assertEquals("mailto:info@blog.de", UrlCanonicalizer.canonicalize("mailto:info@blog.de"))
+        assertEquals("https://blog.de/a b", UrlCanonicalizer.canonicalize("https://blog.de/a b"))
+    }
+
+    @Test
+    fun testKeyIgnoresSchemeWwwAndTrailingSlash() {
+        val key = UrlCanonicalizer.key("https://www.blog.de/artikel/")
+        assertEquals("blog.de/artikel", key)
+        assertEquals(key, UrlCanonicalizer.key("http://blog.de/artikel"))
+        assertEquals(key, UrlCanonicalizer.key("http://WWW.BLOG.DE:80/artikel/#top"))
+        assertEquals(key, UrlCanonicalizer.key("https://blog.de/artikel/?utm_campaign=x"))
+        assertEquals("blog.de", UrlCanonicalizer.key("https://blog.de/"))
+        assertEquals("blog.de:8080/artikel", UrlCanonicalizer.key("https://blog.de:8080/artikel/"))
+    }
+
+    @Test
+    fun testKeyBlogspotCountryDomain() {
+        assertEquals("lesen.blogspot/2018/03/artikel.html", UrlCanonicalizer.key("https://lesen.blogspot.de/2018/03/artikel.html"))
+        assertEquals("lesen.blogspot/2018/03/artikel.html", UrlCanonicalizer.key("http://lesen.blogspot.co.at/2018/03/artikel.html"))
+        assertEquals("lesen.blogspot/2018/03/artikel.html", UrlCanonicalizer.key("https://lesen.blogspot.com/2018/03/artikel.html"))
+    }
+
+    @Test
+    fun testKeyKeepsQuery() {
+        assertEquals("blog.de?a=1&p=2", UrlCanonicalizer.key("https://blog.de/?p=2&a=1"))
+    }
+}